@@ -0,0 +1,239 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Reduces a class file to the parts javac reads when compiling against it: signatures, constants and annotations.
+ * Method bodies, static initializers and private members are dropped. The constant pool is copied as-is, so every
+ * index retained in the class stays valid.
+ */
+final class AbiClassStripper
+{
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int ACC_PRIVATE = 0x0002;
+
+    private static final String CODE = "Code";
+
+    private static final String CLINIT = "<clinit>";
+
+    private AbiClassStripper()
+    {
+    }
+
+    static byte[] strip( final byte[] classfile )
+        throws IOException
+    {
+        final DataInputStream in = new DataInputStream( new ByteArrayInputStream( classfile ) );
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream( classfile.length / 2 );
+        final DataOutputStream out = new DataOutputStream( baos );
+
+        final int magic = in.readInt();
+        if ( magic != MAGIC )
+        {
+            throw new IOException( "Not a class file (bad magic number)." );
+        }
+
+        out.writeInt( magic );
+        out.writeShort( in.readUnsignedShort() ); // minor
+        out.writeShort( in.readUnsignedShort() ); // major
+
+        final String[] utf8 = copyConstantPool( in, out );
+
+        out.writeShort( in.readUnsignedShort() ); // access flags
+        out.writeShort( in.readUnsignedShort() ); // this class
+        out.writeShort( in.readUnsignedShort() ); // super class
+
+        final int interfaces = in.readUnsignedShort();
+        out.writeShort( interfaces );
+        for ( int i = 0; i < interfaces; i++ )
+        {
+            out.writeShort( in.readUnsignedShort() );
+        }
+
+        copyMembers( in, out, utf8, false );
+        copyMembers( in, out, utf8, true );
+
+        // class-level attributes (Signature, InnerClasses, annotations, ...) are all part of the ABI.
+        final int attributes = in.readUnsignedShort();
+        out.writeShort( attributes );
+        for ( int i = 0; i < attributes; i++ )
+        {
+            copyAttribute( in, out );
+        }
+
+        out.flush();
+        return baos.toByteArray();
+    }
+
+    private static String[] copyConstantPool( final DataInputStream in, final DataOutputStream out )
+        throws IOException
+    {
+        final int count = in.readUnsignedShort();
+        out.writeShort( count );
+
+        final String[] utf8 = new String[count];
+        for ( int i = 1; i < count; i++ )
+        {
+            final int tag = in.readUnsignedByte();
+            out.writeByte( tag );
+            switch ( tag )
+            {
+                case 1: // Utf8
+                {
+                    final String value = in.readUTF();
+                    out.writeUTF( value );
+                    utf8[i] = value;
+                    break;
+                }
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                {
+                    copy( in, out, 2 );
+                    break;
+                }
+                case 15: // MethodHandle
+                {
+                    copy( in, out, 3 );
+                    break;
+                }
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                {
+                    copy( in, out, 4 );
+                    break;
+                }
+                case 5: // Long
+                case 6: // Double
+                {
+                    copy( in, out, 8 );
+                    i++;
+                    break;
+                }
+                default:
+                {
+                    throw new IOException( "Unknown constant pool tag: " + tag + " at index: " + i );
+                }
+            }
+        }
+
+        return utf8;
+    }
+
+    private static void copyMembers( final DataInputStream in, final DataOutputStream out, final String[] utf8,
+                                     final boolean methods )
+        throws IOException
+    {
+        final int count = in.readUnsignedShort();
+
+        final ByteArrayOutputStream kept = new ByteArrayOutputStream();
+        final DataOutputStream keptOut = new DataOutputStream( kept );
+        int keptCount = 0;
+
+        for ( int i = 0; i < count; i++ )
+        {
+            final int access = in.readUnsignedShort();
+            final int name = in.readUnsignedShort();
+            final int descriptor = in.readUnsignedShort();
+            final int attributes = in.readUnsignedShort();
+
+            final boolean keep = ( access & ACC_PRIVATE ) == 0 && !( methods && CLINIT.equals( utf8[name] ) );
+
+            final ByteArrayOutputStream attrs = new ByteArrayOutputStream();
+            final DataOutputStream attrsOut = new DataOutputStream( attrs );
+            int keptAttributes = 0;
+            for ( int j = 0; j < attributes; j++ )
+            {
+                final int attrName = in.readUnsignedShort();
+                final int length = in.readInt();
+                if ( methods && CODE.equals( utf8[attrName] ) )
+                {
+                    skip( in, length );
+                    continue;
+                }
+
+                attrsOut.writeShort( attrName );
+                attrsOut.writeInt( length );
+                copy( in, attrsOut, length );
+                keptAttributes++;
+            }
+
+            if ( keep )
+            {
+                keptOut.writeShort( access );
+                keptOut.writeShort( name );
+                keptOut.writeShort( descriptor );
+                keptOut.writeShort( keptAttributes );
+                attrsOut.flush();
+                attrs.writeTo( keptOut );
+                keptCount++;
+            }
+        }
+
+        keptOut.flush();
+        out.writeShort( keptCount );
+        kept.writeTo( out );
+    }
+
+    private static void copyAttribute( final DataInputStream in, final DataOutputStream out )
+        throws IOException
+    {
+        out.writeShort( in.readUnsignedShort() );
+        final int length = in.readInt();
+        out.writeInt( length );
+        copy( in, out, length );
+    }
+
+    private static void copy( final DataInputStream in, final DataOutputStream out, final int length )
+        throws IOException
+    {
+        final byte[] buf = new byte[length];
+        in.readFully( buf );
+        out.write( buf );
+    }
+
+    private static void skip( final DataInputStream in, final int length )
+        throws IOException
+    {
+        int remaining = length;
+        while ( remaining > 0 )
+        {
+            final int skipped = in.skipBytes( remaining );
+            if ( skipped < 1 )
+            {
+                throw new IOException( "Unexpected end of class file." );
+            }
+            remaining -= skipped;
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches class loaders of closed {@link CompilerResult}s and reports those that are still reachable once their
+ * test is over. A loader that survives usually means something static (a cache, a thread local, a leaked thread) still
+ * holds one of its classes, which pins all of them in metaspace.
+ */
+final class ClassLoaderLeakTracker
+{
+
+    private static final int GC_ATTEMPTS = 3;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final List<TrackedLoader> tracked = new ArrayList<>();
+
+    synchronized void track( final ClassLoader loader, final String owner, final Object classes )
+    {
+        if ( loader != null )
+        {
+            tracked.add( new TrackedLoader( loader, owner, classes ) );
+        }
+    }
+
+    /**
+     * Request garbage collection and report every tracked loader that survives it. This is expensive, so it only
+     * happens when the fixture enables leak checks.
+     *
+     * @return descriptions of the leaked loaders, empty if there are none
+     */
+    synchronized List<String> check()
+    {
+        final List<String> leaks = new ArrayList<>();
+        if ( tracked.isEmpty() )
+        {
+            return leaks;
+        }
+
+        for ( int i = 0; i < GC_ATTEMPTS && anyAlive(); i++ )
+        {
+            System.gc();
+            try
+            {
+                Thread.sleep( 10 );
+            }
+            catch ( final InterruptedException e )
+            {
+                Thread.currentThread()
+                      .interrupt();
+                break;
+            }
+        }
+
+        for ( final Iterator<TrackedLoader> it = tracked.iterator(); it.hasNext(); )
+        {
+            final TrackedLoader t = it.next();
+            if ( t.get() != null )
+            {
+                leaks.add( t.classes + " (from test: " + t.owner + ")" );
+                logger.warn( "Class loader for: {} (from test: {}) outlived its test. Something still references it or one of its classes.",
+                             t.classes, t.owner );
+            }
+
+            it.remove();
+        }
+
+        return leaks;
+    }
+
+    private boolean anyAlive()
+    {
+        for ( final TrackedLoader t : tracked )
+        {
+            if ( t.get() != null )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static final class TrackedLoader
+        extends WeakReference<ClassLoader>
+    {
+        private final String owner;
+
+        private final Object classes;
+
+        TrackedLoader( final ClassLoader loader, final String owner, final Object classes )
+        {
+            super( loader );
+            this.owner = owner;
+            this.classes = classes;
+        }
+    }
+
+}
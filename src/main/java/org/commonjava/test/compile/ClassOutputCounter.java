@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.ForwardingJavaFileObject;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+
+/**
+ * Counts the class files, and their bytes, that javac writes through the file managers it wraps, so that compile
+ * statistics don't have to scan the output directory afterwards.
+ */
+final class ClassOutputCounter
+{
+
+    private final AtomicInteger classes = new AtomicInteger();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    JavaFileManager wrap( final JavaFileManager fileManager )
+    {
+        return new ForwardingJavaFileManager<JavaFileManager>( fileManager )
+        {
+            @Override
+            public JavaFileObject getJavaFileForOutput( final Location location, final String className,
+                                                        final Kind kind, final FileObject sibling )
+                throws IOException
+            {
+                return count( super.getJavaFileForOutput( location, className, kind, sibling ), kind );
+            }
+        };
+    }
+
+    JavaFileObject count( final JavaFileObject file, final Kind kind )
+    {
+        if ( kind != Kind.CLASS )
+        {
+            return file;
+        }
+
+        return new ForwardingJavaFileObject<JavaFileObject>( file )
+        {
+            @Override
+            public OutputStream openOutputStream()
+                throws IOException
+            {
+                classes.incrementAndGet();
+                return new FilterOutputStream( super.openOutputStream() )
+                {
+                    @Override
+                    public void write( final int b )
+                        throws IOException
+                    {
+                        out.write( b );
+                        bytes.incrementAndGet();
+                    }
+
+                    @Override
+                    public void write( final byte[] b, final int off, final int len )
+                        throws IOException
+                    {
+                        out.write( b, off, len );
+                        bytes.addAndGet( len );
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Forget what was counted, e.g. before compiling again after a failed batch.
+     */
+    void reset()
+    {
+        classes.set( 0 );
+        bytes.set( 0 );
+    }
+
+    int getClasses()
+    {
+        return classes.get();
+    }
+
+    long getBytes()
+    {
+        return bytes.get();
+    }
+
+}
@@ -0,0 +1,364 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import static org.apache.commons.lang.StringUtils.join;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Header-only (ABI) view of the caller's classpath. Each jar on the classpath is reduced to signatures, constants and
+ * annotations (see {@link AbiClassStripper}) and cached on disk, keyed by its path, size and timestamp, so a jar is
+ * only stripped again when it changes. Directory entries are passed through untouched, since they are usually the
+ * project's own (frequently rebuilt) output. A multi-release jar keeps its versioned classes
+ * (<code>META-INF/versions/N/</code>) and its <code>Multi-Release</code> manifest attribute, which javac compiles
+ * against on newer JDKs.
+ * <p>
+ * The snapshot cache lives under the directory named by the {@value #CACHE_DIR_PROPERTY} system property, or under
+ * <code>${java.io.tmpdir}/compiler-test-fixture-abi</code> if that is unset.
+ */
+public final class ClasspathAbiSnapshot
+{
+
+    public static final String CACHE_DIR_PROPERTY = "compiler.fixture.abi.dir";
+
+    private static final String CLASS_EXT = ".class";
+
+    private static final String VERSIONS_DIR = "META-INF/versions/";
+
+    // part of each snapshot's cache key; bump it when the snapshot's contents change, so old snapshots are rebuilt.
+    private static final String SNAPSHOT_FORMAT = "2";
+
+    private static ClasspathAbiSnapshot callerSnapshot;
+
+    private static String callerClasspath;
+
+    private final List<File> originalEntries;
+
+    private final List<File> abiEntries;
+
+    private ClasspathAbiSnapshot( final List<File> originalEntries, final List<File> abiEntries )
+    {
+        this.originalEntries = Collections.unmodifiableList( originalEntries );
+        this.abiEntries = Collections.unmodifiableList( abiEntries );
+    }
+
+    /**
+     * Return the snapshot of the current <code>java.class.path</code>, building (or re-validating) it only if the
+     * classpath changed since the last call in this JVM.
+     */
+    public static synchronized ClasspathAbiSnapshot forCallerClasspath()
+        throws IOException
+    {
+        final String cp = System.getProperty( "java.class.path", "" );
+        if ( callerSnapshot == null || !cp.equals( callerClasspath ) )
+        {
+            CompileStatistics.getInstance()
+                             .cacheMiss( "abi-classpath" );
+            callerSnapshot = build( expand( cp ), getCacheDir() );
+            callerClasspath = cp;
+        }
+        else
+        {
+            CompileStatistics.getInstance()
+                             .cacheHit( "abi-classpath" );
+        }
+
+        return callerSnapshot;
+    }
+
+    public static ClasspathAbiSnapshot build( final List<File> classpath, final File cacheDir )
+        throws IOException
+    {
+        final Logger logger = LoggerFactory.getLogger( ClasspathAbiSnapshot.class );
+
+        final List<File> abi = new ArrayList<>( classpath.size() );
+        for ( final File entry : classpath )
+        {
+            if ( entry.isFile() )
+            {
+                abi.add( snapshotJar( entry, cacheDir ) );
+            }
+            else if ( entry.isDirectory() )
+            {
+                abi.add( entry );
+            }
+            else
+            {
+                logger.debug( "Skipping missing classpath entry: {}", entry );
+            }
+        }
+
+        return new ClasspathAbiSnapshot( new ArrayList<>( classpath ), abi );
+    }
+
+    public List<File> getOriginalEntries()
+    {
+        return originalEntries;
+    }
+
+    public List<File> getAbiEntries()
+    {
+        return abiEntries;
+    }
+
+    public String getOriginalClasspath()
+    {
+        return join( originalEntries, File.pathSeparator );
+    }
+
+    public String getAbiClasspath()
+    {
+        return join( abiEntries, File.pathSeparator );
+    }
+
+    static File getCacheDir()
+    {
+        final String dir = System.getProperty( CACHE_DIR_PROPERTY );
+        if ( dir != null )
+        {
+            return new File( dir );
+        }
+
+        return new File( System.getProperty( "java.io.tmpdir" ), "compiler-test-fixture-abi" );
+    }
+
+    /**
+     * Split a path string and follow <code>Class-Path</code> manifest entries, the way javac does. This matters under
+     * surefire, which often runs tests from a manifest-only booter jar.
+     */
+    static List<File> expand( final String classpath )
+        throws IOException
+    {
+        final Set<File> result = new LinkedHashSet<>();
+        for ( final String part : classpath.split( File.pathSeparator ) )
+        {
+            if ( part.trim()
+                     .length() > 0 )
+            {
+                expand( new File( part ).getCanonicalFile(), result );
+            }
+        }
+
+        return new ArrayList<>( result );
+    }
+
+    private static void expand( final File entry, final Set<File> result )
+        throws IOException
+    {
+        if ( !result.add( entry ) || !entry.isFile() )
+        {
+            return;
+        }
+
+        final Manifest manifest;
+        try (JarFile jar = new JarFile( entry ))
+        {
+            manifest = jar.getManifest();
+        }
+        catch ( final IOException e )
+        {
+            // not a jar; javac will complain about it if it matters.
+            return;
+        }
+
+        final String manifestCp = manifest == null ? null : manifest.getMainAttributes()
+                                                                    .getValue( Attributes.Name.CLASS_PATH );
+        if ( manifestCp == null )
+        {
+            return;
+        }
+
+        for ( final String ref : manifestCp.trim()
+                                           .split( "\\s+" ) )
+        {
+            if ( ref.length() < 1 )
+            {
+                continue;
+            }
+
+            File f;
+            try
+            {
+                final URI uri = entry.getParentFile()
+                                     .toURI()
+                                     .resolve( ref );
+                f = "file".equals( uri.getScheme() ) ? new File( uri ) : null;
+            }
+            catch ( final IllegalArgumentException e )
+            {
+                f = new File( entry.getParentFile(), ref );
+            }
+
+            if ( f != null )
+            {
+                expand( f.getCanonicalFile(), result );
+            }
+        }
+    }
+
+    private static File snapshotJar( final File jar, final File cacheDir )
+        throws IOException
+    {
+        final File snapshot = new File( cacheDir, jar.getName() + "-" + fingerprint( jar ) + ".jar" );
+        if ( snapshot.isFile() )
+        {
+            CompileStatistics.getInstance()
+                             .cacheHit( "abi-jar" );
+            return snapshot;
+        }
+
+        CompileStatistics.getInstance()
+                         .cacheMiss( "abi-jar" );
+
+        final Logger logger = LoggerFactory.getLogger( ClasspathAbiSnapshot.class );
+        logger.debug( "Building ABI snapshot of: {} in: {}", jar, snapshot );
+
+        cacheDir.mkdirs();
+        final File tmp = File.createTempFile( snapshot.getName(), ".part", cacheDir );
+        try
+        {
+            try (ZipFile zip = new ZipFile( jar );
+                            ZipOutputStream out = new ZipOutputStream( new FileOutputStream( tmp ) ))
+            {
+                final boolean multiRelease = isMultiRelease( zip );
+                if ( multiRelease )
+                {
+                    // only the attribute javac needs; copying Class-Path would resolve against the cache directory.
+                    final Manifest manifest = new Manifest();
+                    manifest.getMainAttributes()
+                            .put( Attributes.Name.MANIFEST_VERSION, "1.0" );
+                    manifest.getMainAttributes()
+                            .put( Attributes.Name.MULTI_RELEASE, "true" );
+
+                    out.putNextEntry( new ZipEntry( JarFile.MANIFEST_NAME ) );
+                    manifest.write( out );
+                    out.closeEntry();
+                }
+
+                final Enumeration<? extends ZipEntry> entries = zip.entries();
+                while ( entries.hasMoreElements() )
+                {
+                    final ZipEntry entry = entries.nextElement();
+                    final String name = entry.getName();
+                    if ( entry.isDirectory() || !name.endsWith( CLASS_EXT ) || name.endsWith( "module-info.class" ) )
+                    {
+                        continue;
+                    }
+
+                    if ( name.startsWith( "META-INF/" ) && !( multiRelease && name.startsWith( VERSIONS_DIR ) ) )
+                    {
+                        continue;
+                    }
+
+                    byte[] bytes;
+                    try (InputStream in = zip.getInputStream( entry ))
+                    {
+                        bytes = IOUtils.toByteArray( in );
+                    }
+
+                    try
+                    {
+                        bytes = AbiClassStripper.strip( bytes );
+                    }
+                    catch ( final IOException e )
+                    {
+                        logger.debug( "Cannot strip: {}!{} ({}). Keeping the full class.", jar, name,
+                                      e.getMessage() );
+                    }
+
+                    out.putNextEntry( new ZipEntry( name ) );
+                    out.write( bytes );
+                    out.closeEntry();
+                }
+            }
+
+            // another fork may have raced us here; its snapshot is identical, so either copy wins.
+            Files.move( tmp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE );
+        }
+        finally
+        {
+            tmp.delete();
+        }
+
+        return snapshot;
+    }
+
+    private static boolean isMultiRelease( final ZipFile zip )
+        throws IOException
+    {
+        final ZipEntry entry = zip.getEntry( JarFile.MANIFEST_NAME );
+        if ( entry == null )
+        {
+            return false;
+        }
+
+        try (InputStream in = zip.getInputStream( entry ))
+        {
+            return "true".equalsIgnoreCase( new Manifest( in ).getMainAttributes()
+                                                              .getValue( Attributes.Name.MULTI_RELEASE ) );
+        }
+    }
+
+    private static String fingerprint( final File jar )
+        throws IOException
+    {
+        final String key =
+            SNAPSHOT_FORMAT + "|" + jar.getCanonicalPath() + "|" + jar.length() + "|" + jar.lastModified();
+        try
+        {
+            final byte[] digest = MessageDigest.getInstance( "SHA-1" )
+                                               .digest( key.getBytes( "UTF-8" ) );
+            final StringBuilder sb = new StringBuilder();
+            for ( final byte b : digest )
+            {
+                sb.append( String.format( "%02x", b ) );
+            }
+            return sb.toString();
+        }
+        catch ( final NoSuchAlgorithmException | UnsupportedEncodingException e )
+        {
+            throw new IOException( "Cannot fingerprint: " + jar, e );
+        }
+    }
+
+}
@@ -0,0 +1,819 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaCompiler.CompilationTask;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.IdentifierTree;
+import com.sun.source.tree.ImportTree;
+import com.sun.source.tree.MemberReferenceTree;
+import com.sun.source.tree.MemberSelectTree;
+import com.sun.source.tree.MethodInvocationTree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.TreePathScanner;
+import com.sun.source.util.Trees;
+
+/**
+ * Merges compiles that arrive at about the same time (e.g. from tests running in parallel) into a single javac
+ * invocation, so javac's fixed cost is paid once per batch instead of once per fixture.
+ * <p>
+ * The first request to arrive waits until every other compile in flight through a fixture using this scheduler has
+ * queued up too, or the batch window passes, then compiles everything in the queue. With no other compile in flight it
+ * doesn't wait at all.
+ * <p>
+ * Requests are merged if they use the same compiler options and their sources are in different packages, so no
+ * package-private access can cross fixtures. Fixtures may live in separate directories: the merged task searches all
+ * of their source roots, and writes each fixture's class files to its own output directory and its diagnostics to its
+ * own collector. Because one javac task lets every fixture see the others' sources, the merged compile checks that no
+ * fixture's code refers to a declaration from outside its own source roots; one that does would not have compiled
+ * alone. If a merged compile fails, or a fixture crossed into another, the class files it wrote are deleted, the
+ * fixtures at fault are compiled on their own, and the rest are merged again, so one broken fixture can't change
+ * another's result.
+ * <p>
+ * Only the final compile step of fixtures without annotation processors or implicit compilation is batched; anything
+ * else goes straight to javac, though it still counts as in flight while the batch waits.
+ */
+public final class CompileBatchScheduler
+{
+
+    public static final long DEFAULT_WINDOW_MILLIS = 20;
+
+    private static final CompileBatchScheduler DEFAULT = new CompileBatchScheduler( DEFAULT_WINDOW_MILLIS );
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final long windowMillis;
+
+    private final List<Request> pending = new ArrayList<>();
+
+    private boolean collecting;
+
+    private int inFlight;
+
+    private final AtomicInteger mergedCompiles = new AtomicInteger();
+
+    public CompileBatchScheduler( final long windowMillis )
+    {
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Scheduler shared by the whole JVM, with the default batch window.
+     */
+    public static CompileBatchScheduler getDefault()
+    {
+        return DEFAULT;
+    }
+
+    public long getWindowMillis()
+    {
+        return windowMillis;
+    }
+
+    /**
+     * Number of javac invocations so far that compiled more than one fixture successfully.
+     */
+    public int getMergedCompiles()
+    {
+        return mergedCompiles.get();
+    }
+
+    /**
+     * A fixture compile that may reach this scheduler has started; a batch waits for it (up to the window) before it
+     * starts compiling. Must be paired with {@link #end()}.
+     */
+    void begin()
+    {
+        synchronized ( pending )
+        {
+            inFlight++;
+        }
+    }
+
+    void end()
+    {
+        synchronized ( pending )
+        {
+            inFlight--;
+            pending.notifyAll();
+        }
+    }
+
+    /**
+     * Compile the given sources into the target directory, possibly along with other fixtures' sources. Blocks until
+     * this request's batch is done.
+     *
+     * @param options compiler options, without <code>-d</code> or <code>-sourcepath</code>
+     * @param output counts the class files written into <code>target</code>
+     * @param memory marked {@link CompileMemory#isBatched() batched} if the request is compiled in a batch
+     */
+    Boolean compile( final List<String> options, final String sourcepath, final Collection<File> sources,
+                     final File target, final DiagnosticCollector<JavaFileObject> diags,
+                     final ClassOutputCounter output, final CompileMemory memory )
+        throws IOException
+    {
+        final Request request = new Request( options, sourcepath, sources, target, diags, output, memory );
+
+        final boolean leader;
+        synchronized ( pending )
+        {
+            pending.add( request );
+            leader = !collecting;
+            collecting = true;
+            pending.notifyAll();
+        }
+
+        if ( leader )
+        {
+            final List<Request> batch;
+            synchronized ( pending )
+            {
+                awaitBatch();
+                batch = new ArrayList<>( pending );
+                pending.clear();
+                collecting = false;
+            }
+
+            try
+            {
+                run( batch );
+            }
+            finally
+            {
+                // if run() died (e.g. with an Error from javac), don't leave followers waiting forever.
+                for ( final Request r : batch )
+                {
+                    r.abandon();
+                }
+            }
+        }
+
+        return request.await();
+    }
+
+    /**
+     * Wait until every compile in flight has queued up, or the window has passed. Caller holds the lock on
+     * <code>pending</code>.
+     */
+    private void awaitBatch()
+    {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( windowMillis );
+        long remaining;
+        while ( pending.size() < inFlight && ( remaining = deadline - System.nanoTime() ) > 0 )
+        {
+            try
+            {
+                pending.wait( TimeUnit.NANOSECONDS.toMillis( remaining ) + 1 );
+            }
+            catch ( final InterruptedException e )
+            {
+                Thread.currentThread()
+                      .interrupt();
+                return;
+            }
+        }
+    }
+
+    private void run( final List<Request> batch )
+    {
+        if ( batch.size() > 1 )
+        {
+            // the leader's thread compiles every request in the batch, so it is charged for all of them.
+            for ( final Request request : batch )
+            {
+                request.memory.batched();
+            }
+        }
+
+        final Map<List<String>, List<List<Request>>> groups = new LinkedHashMap<>();
+        for ( final Request request : batch )
+        {
+            if ( !request.batchable )
+            {
+                compileAlone( request );
+                continue;
+            }
+
+            final List<String> key = request.options;
+            List<List<Request>> merged = groups.get( key );
+            if ( merged == null )
+            {
+                merged = new ArrayList<>();
+                groups.put( key, merged );
+            }
+
+            List<Request> target = null;
+            for ( final List<Request> candidate : merged )
+            {
+                if ( disjoint( candidate, request ) )
+                {
+                    target = candidate;
+                    break;
+                }
+            }
+
+            if ( target == null )
+            {
+                target = new ArrayList<>();
+                merged.add( target );
+            }
+            target.add( request );
+        }
+
+        for ( final List<List<Request>> merged : groups.values() )
+        {
+            for ( final List<Request> requests : merged )
+            {
+                if ( requests.size() == 1 )
+                {
+                    compileAlone( requests.get( 0 ) );
+                }
+                else
+                {
+                    compileMerged( requests );
+                }
+            }
+        }
+    }
+
+    private boolean disjoint( final List<Request> requests, final Request request )
+    {
+        for ( final Request r : requests )
+        {
+            if ( !Collections.disjoint( r.packages, request.packages ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void compileAlone( final Request request )
+    {
+        final JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        final StandardJavaFileManager fileManager = javac.getStandardFileManager( null, null, null );
+        try
+        {
+            final List<String> options = new ArrayList<>( request.options );
+            options.addAll( Arrays.asList( "-d", request.target.getCanonicalPath(), "-sourcepath",
+                                           String.join( File.pathSeparator, request.roots ) ) );
+
+            request.done( javac.getTask( null, request.output.wrap( fileManager ), request.diags, options, null,
+                                         fileManager.getJavaFileObjectsFromFiles( request.sources ) )
+                               .call() );
+        }
+        catch ( final IOException | RuntimeException e )
+        {
+            request.fail( e );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( fileManager );
+        }
+    }
+
+    private void compileMerged( final List<Request> requests )
+    {
+        logger.debug( "Compiling {} fixtures in one batch.", requests.size() );
+
+        final JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        final StandardJavaFileManager fileManager = javac.getStandardFileManager( null, null, null );
+        final List<StandardJavaFileManager> outputManagers = new ArrayList<>();
+
+        Boolean result = Boolean.FALSE;
+        final DiagnosticCollector<JavaFileObject> diags = new DiagnosticCollector<>();
+        final Map<URI, Request> owners = new HashMap<>();
+        final Map<Request, StandardJavaFileManager> outputs = new HashMap<>();
+        final Map<Request, List<JavaFileObject>> written = new HashMap<>();
+        final BoundaryCheck boundaries = new BoundaryCheck( owners );
+        try
+        {
+            final List<JavaFileObject> objects = new ArrayList<>();
+            final Set<String> sourcepath = new LinkedHashSet<>();
+            for ( final Request request : requests )
+            {
+                for ( final JavaFileObject jfo : fileManager.getJavaFileObjectsFromFiles( request.sources ) )
+                {
+                    objects.add( jfo );
+                    owners.put( jfo.toUri()
+                                   .normalize(), request );
+                }
+
+                sourcepath.addAll( request.roots );
+
+                final StandardJavaFileManager out = javac.getStandardFileManager( null, null, null );
+                out.setLocation( StandardLocation.CLASS_OUTPUT, Collections.singleton( request.target ) );
+                outputManagers.add( out );
+                outputs.put( request, out );
+                written.put( request, new ArrayList<JavaFileObject>() );
+            }
+
+            final List<String> options = new ArrayList<>( requests.get( 0 ).options );
+            options.addAll( Arrays.asList( "-d", requests.get( 0 ).target.getCanonicalPath(), "-sourcepath",
+                                           String.join( File.pathSeparator, sourcepath ) ) );
+
+            final JavaFileManager partitioned = new ForwardingJavaFileManager<JavaFileManager>( fileManager )
+            {
+                @Override
+                public JavaFileObject getJavaFileForOutput( final Location location, final String className,
+                                                            final Kind kind, final FileObject sibling )
+                    throws IOException
+                {
+                    final Request owner = sibling == null ? null : owners.get( sibling.toUri()
+                                                                                      .normalize() );
+                    if ( owner != null && location == StandardLocation.CLASS_OUTPUT )
+                    {
+                        final JavaFileObject file = outputs.get( owner )
+                                                           .getJavaFileForOutput( location, className, kind,
+                                                                                  sibling );
+                        written.get( owner )
+                               .add( file );
+                        return owner.output.count( file, kind );
+                    }
+
+                    return super.getJavaFileForOutput( location, className, kind, sibling );
+                }
+            };
+
+            final CompilationTask task = javac.getTask( null, partitioned, diags, options, null, objects );
+            if ( task instanceof JavacTask )
+            {
+                boundaries.attach( (JavacTask) task );
+            }
+
+            result = task.call();
+        }
+        catch ( final IOException | RuntimeException e )
+        {
+            logger.debug( "Batched compile failed; compiling fixtures separately.", e );
+            result = null;
+        }
+        finally
+        {
+            IOUtils.closeQuietly( fileManager );
+            for ( final StandardJavaFileManager out : outputManagers )
+            {
+                IOUtils.closeQuietly( out );
+            }
+        }
+
+        if ( Boolean.TRUE.equals( result ) && boundaries.getViolators()
+                                                        .isEmpty() )
+        {
+            for ( final Diagnostic<? extends JavaFileObject> diag : diags.getDiagnostics() )
+            {
+                final Request owner = ownerOf( diag, owners );
+                if ( owner != null )
+                {
+                    owner.diags.report( diag );
+                }
+                else
+                {
+                    for ( final Request request : requests )
+                    {
+                        request.diags.report( diag );
+                    }
+                }
+            }
+
+            mergedCompiles.incrementAndGet();
+            for ( final Request request : requests )
+            {
+                request.done( result );
+            }
+            return;
+        }
+
+        // blame the fixtures whose sources have errors or crossed into another fixture, if the failure allows it.
+        final Set<Request> blamed = new HashSet<>( boundaries.getViolators() );
+        boolean unattributed = result == null;
+        for ( final Diagnostic<? extends JavaFileObject> diag : diags.getDiagnostics() )
+        {
+            if ( diag.getKind() == Diagnostic.Kind.ERROR )
+            {
+                final Request owner = ownerOf( diag, owners );
+                if ( owner == null )
+                {
+                    unattributed = true;
+                }
+                else
+                {
+                    blamed.add( owner );
+                }
+            }
+        }
+
+        final List<Request> retry = new ArrayList<>();
+        for ( final Request request : requests )
+        {
+            for ( final JavaFileObject file : written.get( request ) )
+            {
+                file.delete();
+            }
+            request.output.reset();
+
+            if ( unattributed || blamed.isEmpty() || blamed.contains( request ) )
+            {
+                compileAlone( request );
+            }
+            else
+            {
+                retry.add( request );
+            }
+        }
+
+        logger.debug( "Batched compile failed; compiled {} fixture(s) on their own, retrying the other {}.",
+                      requests.size() - retry.size(), retry.size() );
+        if ( retry.size() > 1 )
+        {
+            compileMerged( retry );
+        }
+        else if ( !retry.isEmpty() )
+        {
+            compileAlone( retry.get( 0 ) );
+        }
+    }
+
+    private static Request ownerOf( final Diagnostic<? extends JavaFileObject> diag, final Map<URI, Request> owners )
+    {
+        return diag.getSource() == null ? null : owners.get( diag.getSource()
+                                                                 .toUri()
+                                                                 .normalize() );
+    }
+
+    /**
+     * Finds the fixtures in a merged task whose code refers to a declaration from outside their own source roots,
+     * which would resolve only because another fixture's sources are in the same task. Each class is checked as soon as
+     * javac has analyzed it; declarations loaded from class files (the classpath, the JDK) are always allowed.
+     */
+    private static final class BoundaryCheck
+        implements TaskListener
+    {
+        private final Map<URI, Request> owners;
+
+        private final Map<URI, String> paths = new HashMap<>();
+
+        private final Map<Element, URI> analyzed = new HashMap<>();
+
+        private final Set<CompilationUnitTree> importsChecked = new HashSet<>();
+
+        private final Set<Request> violators = new HashSet<>();
+
+        private Trees trees;
+
+        BoundaryCheck( final Map<URI, Request> owners )
+        {
+            this.owners = owners;
+        }
+
+        void attach( final JavacTask task )
+        {
+            trees = Trees.instance( task );
+            task.addTaskListener( this );
+        }
+
+        Set<Request> getViolators()
+        {
+            return violators;
+        }
+
+        @Override
+        public void started( final TaskEvent e )
+        {
+        }
+
+        @Override
+        public void finished( final TaskEvent e )
+        {
+            if ( e.getKind() != TaskEvent.Kind.ANALYZE || e.getTypeElement() == null )
+            {
+                return;
+            }
+
+            final CompilationUnitTree unit = e.getCompilationUnit();
+            final URI source = unit.getSourceFile()
+                                   .toUri()
+                                   .normalize();
+
+            // once a class is generated javac drops its tree, so Trees can no longer say where it came from.
+            analyzed.put( e.getTypeElement(), source );
+
+            final Request request = owners.get( source );
+            if ( request == null || violators.contains( request ) )
+            {
+                return;
+            }
+
+            final Scanner scanner = new Scanner( request );
+            if ( importsChecked.add( unit ) )
+            {
+                for ( final ImportTree imp : unit.getImports() )
+                {
+                    scanner.scan( new TreePath( new TreePath( unit ), imp ), null );
+                }
+            }
+
+            final TreePath path = trees.getPath( e.getTypeElement() );
+            if ( path != null )
+            {
+                scanner.scan( path, null );
+            }
+        }
+
+        private final class Scanner
+            extends TreePathScanner<Void, Void>
+        {
+            private final Request request;
+
+            Scanner( final Request request )
+            {
+                this.request = request;
+            }
+
+            @Override
+            public Void visitIdentifier( final IdentifierTree node, final Void p )
+            {
+                check( trees.getElement( getCurrentPath() ) );
+                return super.visitIdentifier( node, p );
+            }
+
+            @Override
+            public Void visitMemberSelect( final MemberSelectTree node, final Void p )
+            {
+                check( trees.getElement( getCurrentPath() ) );
+                return super.visitMemberSelect( node, p );
+            }
+
+            @Override
+            public Void visitMemberReference( final MemberReferenceTree node, final Void p )
+            {
+                check( trees.getElement( getCurrentPath() ) );
+                return super.visitMemberReference( node, p );
+            }
+
+            @Override
+            public Void visitMethodInvocation( final MethodInvocationTree node, final Void p )
+            {
+                // the result type may come from another fixture without ever being named here.
+                final TypeMirror type = trees.getTypeMirror( getCurrentPath() );
+                if ( type != null && type.getKind() == TypeKind.DECLARED )
+                {
+                    check( ( (DeclaredType) type ).asElement() );
+                }
+                return super.visitMethodInvocation( node, p );
+            }
+
+            private void check( final Element element )
+            {
+                if ( element == null || element.getKind() == ElementKind.PACKAGE )
+                {
+                    return;
+                }
+
+                Element top = element;
+                while ( top.getEnclosingElement() != null && top.getEnclosingElement()
+                                                                .getKind() != ElementKind.PACKAGE )
+                {
+                    top = top.getEnclosingElement();
+                }
+
+                URI uri = analyzed.get( top );
+                if ( uri == null )
+                {
+                    final TreePath declaration = top instanceof TypeElement ? trees.getPath( top ) : null;
+                    if ( declaration == null )
+                    {
+                        return;
+                    }
+
+                    uri = declaration.getCompilationUnit()
+                                     .getSourceFile()
+                                     .toUri()
+                                     .normalize();
+                }
+
+                if ( !request.owns( path( uri ) ) )
+                {
+                    violators.add( request );
+                }
+            }
+        }
+
+        private String path( final URI uri )
+        {
+            String path = paths.get( uri );
+            if ( path == null )
+            {
+                try
+                {
+                    path = new File( uri ).getCanonicalPath();
+                }
+                catch ( final IOException | IllegalArgumentException e )
+                {
+                    path = uri.toString();
+                }
+                paths.put( uri, path );
+            }
+
+            return path;
+        }
+    }
+
+    private static final class Request
+    {
+        private final List<String> options;
+
+        private final List<String> roots;
+
+        private final Collection<File> sources;
+
+        private final Set<String> packages;
+
+        private final boolean batchable;
+
+        private final File target;
+
+        private final DiagnosticCollector<JavaFileObject> diags;
+
+        private final ClassOutputCounter output;
+
+        private final CompileMemory memory;
+
+        private final CountDownLatch latch = new CountDownLatch( 1 );
+
+        private Boolean result;
+
+        private Exception error;
+
+        private boolean complete;
+
+        Request( final List<String> options, final String sourcepath, final Collection<File> sources,
+                 final File target, final DiagnosticCollector<JavaFileObject> diags, final ClassOutputCounter output,
+                 final CompileMemory memory )
+            throws IOException
+        {
+            this.options = new ArrayList<>( options );
+            this.roots = Arrays.asList( sourcepath.split( File.pathSeparator ) );
+            this.sources = sources;
+            this.target = target;
+            this.diags = diags;
+            this.output = output;
+            this.memory = memory;
+            this.packages = packages( roots, sources );
+            this.batchable = options.contains( "-implicit:none" ) && options.contains( "-proc:none" );
+        }
+
+        /**
+         * Package directories of the sources, relative to the sourcepath roots.
+         */
+        private static Set<String> packages( final List<String> roots, final Collection<File> sources )
+            throws IOException
+        {
+            final Set<String> result = new HashSet<>();
+            nextSource: for ( final File source : sources )
+            {
+                final String path = source.getCanonicalPath();
+                for ( final String root : roots )
+                {
+                    if ( path.startsWith( root + File.separator ) )
+                    {
+                        final String relative = path.substring( root.length() + 1 );
+                        final int slash = relative.lastIndexOf( File.separatorChar );
+                        result.add( slash < 0 ? "" : relative.substring( 0, slash ) );
+                        continue nextSource;
+                    }
+                }
+
+                result.add( new File( path ).getParent() );
+            }
+
+            return result;
+        }
+
+        /**
+         * Whether the (canonical) path is under one of this request's source roots.
+         */
+        boolean owns( final String path )
+        {
+            for ( final String root : roots )
+            {
+                if ( path.startsWith( root + File.separator ) )
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        synchronized void done( final Boolean result )
+        {
+            this.result = result;
+            complete = true;
+            latch.countDown();
+        }
+
+        synchronized void fail( final Exception error )
+        {
+            this.error = error;
+            complete = true;
+            latch.countDown();
+        }
+
+        synchronized void abandon()
+        {
+            if ( !complete )
+            {
+                fail( new IOException( "Batched compile was aborted before this fixture was compiled." ) );
+            }
+        }
+
+        Boolean await()
+            throws IOException
+        {
+            try
+            {
+                latch.await();
+            }
+            catch ( final InterruptedException e )
+            {
+                Thread.currentThread()
+                      .interrupt();
+                throw new IOException( "Interrupted while waiting for batched compile.", e );
+            }
+
+            synchronized ( this )
+            {
+                if ( error instanceof IOException )
+                {
+                    throw (IOException) error;
+                }
+                else if ( error != null )
+                {
+                    throw (RuntimeException) error;
+                }
+
+                return result;
+            }
+        }
+    }
+
+}
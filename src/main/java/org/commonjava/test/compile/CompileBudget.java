@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Upper limit on a compile latency percentile for a fixture, e.g. "p95 of <code>anno-proc-gen-src</code> stays under
+ * 2000ms". Fixtures are matched by directory name, or <code>*</code> for all of them. See
+ * {@link CompileStatistics#withBudget(CompileBudget)}.
+ */
+public final class CompileBudget
+{
+
+    public static final String ANY_FIXTURE = "*";
+
+    private static final Pattern SPEC =
+        Pattern.compile( "\\s*([^:\\s]+)\\s*:\\s*p(\\d+(?:\\.\\d+)?)\\s*=\\s*(\\d+)(?:ms)?\\s*" );
+
+    private final String fixture;
+
+    private final double percentile;
+
+    private final long maxMillis;
+
+    private int minSamples = 1;
+
+    public CompileBudget( final String fixture, final double percentile, final long maxMillis )
+    {
+        if ( percentile <= 0 || percentile > 100 )
+        {
+            throw new IllegalArgumentException( "Percentile must be in (0, 100]: " + percentile );
+        }
+
+        this.fixture = fixture;
+        this.percentile = percentile;
+        this.maxMillis = maxMillis;
+    }
+
+    /**
+     * Parse budgets of the form <code>fixture:p95=2000</code>, separated by commas or semicolons.
+     */
+    public static List<CompileBudget> parse( final String spec )
+    {
+        final List<CompileBudget> budgets = new ArrayList<>();
+        if ( spec == null )
+        {
+            return budgets;
+        }
+
+        for ( final String part : spec.split( "[,;]" ) )
+        {
+            if ( part.trim()
+                     .isEmpty() )
+            {
+                continue;
+            }
+
+            final Matcher m = SPEC.matcher( part );
+            if ( !m.matches() )
+            {
+                throw new IllegalArgumentException( "Invalid compile budget: '" + part.trim()
+                    + "'. Expected something like: my-fixture:p95=2000" );
+            }
+
+            budgets.add( new CompileBudget( m.group( 1 ), Double.parseDouble( m.group( 2 ) ),
+                                            Long.parseLong( m.group( 3 ) ) ) );
+        }
+
+        return budgets;
+    }
+
+    /**
+     * Don't enforce the budget until the fixture has been compiled at least this many times, so one cold compile
+     * can't fail the build.
+     */
+    public CompileBudget withMinSamples( final int minSamples )
+    {
+        this.minSamples = minSamples;
+        return this;
+    }
+
+    public String getFixture()
+    {
+        return fixture;
+    }
+
+    public double getPercentile()
+    {
+        return percentile;
+    }
+
+    public long getMaxMillis()
+    {
+        return maxMillis;
+    }
+
+    public int getMinSamples()
+    {
+        return minSamples;
+    }
+
+    boolean appliesTo( final String fixtureName )
+    {
+        return ANY_FIXTURE.equals( fixture ) || fixture.equals( fixtureName );
+    }
+
+    @Override
+    public String toString()
+    {
+        final String p = percentile == Math.rint( percentile ) ? String.valueOf( (long) percentile )
+                        : String.valueOf( percentile );
+        return fixture + ":p" + p + "=" + maxMillis + "ms";
+    }
+
+}
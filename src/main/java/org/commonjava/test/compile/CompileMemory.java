@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory cost of a compile. Allocated bytes are exact per thread: they cover the compiling thread for the whole
+ * compile, plus any worker threads that ran its javac tasks (for timeouts or parallel partitions). A batched compile
+ * (see {@link CompileBatchScheduler}) is counted by the thread that led the batch. GC counts, GC time and the
+ * metaspace delta are JVM-wide, so they are only attributable when compiles don't overlap. {@link #isAttributable()}
+ * tells whether the figures belong to this compile alone; {@link CompileStatistics} leaves out the ones that don't.
+ * <p>
+ * Allocated bytes are -1 if the JVM can't measure per-thread allocation.
+ */
+public final class CompileMemory
+{
+
+    private static final com.sun.management.ThreadMXBean THREADS;
+
+    static
+    {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean threads = null;
+        if ( bean instanceof com.sun.management.ThreadMXBean )
+        {
+            threads = (com.sun.management.ThreadMXBean) bean;
+            if ( threads.isThreadAllocatedMemorySupported() && !threads.isThreadAllocatedMemoryEnabled() )
+            {
+                threads.setThreadAllocatedMemoryEnabled( true );
+            }
+
+            if ( !threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled() )
+            {
+                threads = null;
+            }
+        }
+
+        THREADS = threads;
+    }
+
+    private static final AtomicInteger ACTIVE = new AtomicInteger();
+
+    private static final AtomicLong STARTED = new AtomicLong();
+
+    private final Thread owner = Thread.currentThread();
+
+    // another compile was running when this one started, or one starts before this one finishes.
+    private boolean overlapped = ACTIVE.incrementAndGet() > 1;
+
+    private final long startedBefore = STARTED.incrementAndGet();
+
+    private final long ownerStartBytes = allocatedBytes();
+
+    private final long gcCountStart = gcCount();
+
+    private final long gcMillisStart = gcMillis();
+
+    private final long metaspaceStart = ResultFootprint.metaspaceUsed();
+
+    private long workerBytes;
+
+    private boolean batched;
+
+    private boolean finished;
+
+    private long allocatedBytes = -1;
+
+    private long gcCountDelta;
+
+    private long gcMillisDelta;
+
+    private long metaspaceDelta;
+
+    /**
+     * Bytes allocated on the heap by the threads that ran this compile, or -1 if unsupported.
+     */
+    public synchronized long getAllocatedBytes()
+    {
+        return allocatedBytes;
+    }
+
+    /**
+     * Garbage collections (all collectors, whole JVM) during the compile.
+     */
+    public synchronized long getGcCount()
+    {
+        return gcCountDelta;
+    }
+
+    /**
+     * Accumulated collection time (all collectors, whole JVM) during the compile, in milliseconds.
+     */
+    public synchronized long getGcMillis()
+    {
+        return gcMillisDelta;
+    }
+
+    public synchronized long getMetaspaceDelta()
+    {
+        return metaspaceDelta;
+    }
+
+    /**
+     * Whether this compile was merged into a batch with other fixtures' compiles, so that one thread ran (and was
+     * charged for) all of them.
+     */
+    public synchronized boolean isBatched()
+    {
+        return batched;
+    }
+
+    /**
+     * Whether another compile ran at the same time, so that the JVM-wide figures (GCs, metaspace) include its work.
+     */
+    public synchronized boolean isOverlapped()
+    {
+        return overlapped;
+    }
+
+    /**
+     * Whether all of these figures belong to this compile alone: it was neither batched nor overlapped.
+     */
+    public synchronized boolean isAttributable()
+    {
+        return !batched && !overlapped;
+    }
+
+    synchronized void batched()
+    {
+        batched = true;
+    }
+
+    /**
+     * Start measuring the current thread, if it isn't the compiling thread (which is measured throughout).
+     *
+     * @return the token to pass to {@link #taskFinished(long)}
+     */
+    long taskStarted()
+    {
+        return Thread.currentThread() == owner ? -1 : allocatedBytes();
+    }
+
+    void taskFinished( final long startBytes )
+    {
+        if ( startBytes >= 0 )
+        {
+            final long bytes = allocatedBytes() - startBytes;
+            synchronized ( this )
+            {
+                workerBytes += bytes;
+            }
+        }
+    }
+
+    synchronized void finished()
+    {
+        if ( finished )
+        {
+            return;
+        }
+
+        finished = true;
+        overlapped |= STARTED.get() != startedBefore;
+        ACTIVE.decrementAndGet();
+
+        if ( ownerStartBytes >= 0 )
+        {
+            allocatedBytes = allocatedBytes() - ownerStartBytes + workerBytes;
+        }
+        gcCountDelta = gcCount() - gcCountStart;
+        gcMillisDelta = gcMillis() - gcMillisStart;
+        metaspaceDelta = ResultFootprint.metaspaceUsed() - metaspaceStart;
+    }
+
+    /**
+     * Bytes allocated so far by the current thread, or -1 if unsupported.
+     */
+    static long allocatedBytes()
+    {
+        return THREADS == null ? -1 : THREADS.getThreadAllocatedBytes( Thread.currentThread()
+                                                                             .getId() );
+    }
+
+    private static long gcCount()
+    {
+        long count = 0;
+        for ( final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() )
+        {
+            count += Math.max( 0, gc.getCollectionCount() );
+        }
+
+        return count;
+    }
+
+    private static long gcMillis()
+    {
+        long millis = 0;
+        for ( final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() )
+        {
+            millis += Math.max( 0, gc.getCollectionTime() );
+        }
+
+        return millis;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format( "allocated: %d bytes, GCs: %d (%d ms), metaspace delta: %d%s", allocatedBytes,
+                              gcCountDelta, gcMillisDelta, metaspaceDelta,
+                              batched ? " (batched)" : overlapped ? " (overlapped)" : "" );
+    }
+
+}
@@ -0,0 +1,609 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compile statistics for the whole JVM (usually one surefire fork), fed by every {@link CompilerFixture}: latency
+ * histograms per fixture directory and config, cache hit rates, the classes and bytes produced, and allocation and
+ * GC totals (see {@link CompileMemory}), including per annotation processor when processors are profiled. Memory
+ * figures only cover compiles they can be attributed to; batched or overlapping compiles are counted as
+ * <code>unattributed</code> instead.
+ * <p>
+ * If the {@value #REPORT_PROPERTY} system property names a file, the statistics are written to it as JSON at JVM exit;
+ * otherwise there is no report. When several forks run, give each its own file, e.g. with
+ * <code>${surefire.forkNumber}</code>.
+ * <p>
+ * Budgets (see {@link CompileBudget}) come from {@link #withBudget(CompileBudget)} or from the
+ * {@value #BUDGETS_PROPERTY} system property. Each test is checked against the compiles it made itself, and fails if
+ * those blew a budget; one slow compile doesn't fail later tests of the same fixture. The report checks every budget
+ * against the whole run.
+ */
+public final class CompileStatistics
+{
+
+    public static final String REPORT_PROPERTY = "compiler.fixture.stats.report";
+
+    public static final String BUDGETS_PROPERTY = "compiler.fixture.budgets";
+
+    private static final double[] REPORTED_PERCENTILES = { 50, 90, 95, 99 };
+
+    private static final CompileStatistics INSTANCE = new CompileStatistics();
+
+    static
+    {
+        INSTANCE.budgets.addAll( CompileBudget.parse( System.getProperty( BUDGETS_PROPERTY ) ) );
+
+        final File report = getReportFile();
+        if ( report != null )
+        {
+            Runtime.getRuntime()
+                   .addShutdownHook( new Thread( "compiler-fixture-stats-report" )
+                   {
+                       @Override
+                       public void run()
+                       {
+                           INSTANCE.writeReportQuietly( report );
+                       }
+                   } );
+        }
+    }
+
+    private final Map<String, FixtureStats> fixtures = new LinkedHashMap<>();
+
+    private final Map<String, long[]> caches = new LinkedHashMap<>();
+
+    private final Map<String, long[]> processors = new LinkedHashMap<>();
+
+    private final List<CompileBudget> budgets = new ArrayList<>();
+
+    /**
+     * Statistics of their own, e.g. for the compiles of one test; only {@link #getInstance()} reports and holds budgets.
+     */
+    CompileStatistics()
+    {
+    }
+
+    public static CompileStatistics getInstance()
+    {
+        return INSTANCE;
+    }
+
+    public synchronized CompileStatistics withBudget( final CompileBudget budget )
+    {
+        budgets.add( budget );
+        return this;
+    }
+
+    /**
+     * Remove a budget added by {@link #withBudget(CompileBudget)}, e.g. at the end of the test that needed it.
+     */
+    public synchronized CompileStatistics withoutBudget( final CompileBudget budget )
+    {
+        budgets.remove( budget );
+        return this;
+    }
+
+    public synchronized List<CompileBudget> getBudgets()
+    {
+        return new ArrayList<>( budgets );
+    }
+
+    synchronized boolean hasBudgets()
+    {
+        return !budgets.isEmpty();
+    }
+
+    synchronized void record( final File directory, final CompilerFixtureConfig config, final long nanos,
+                              final CompilerResult result, final int classes, final long bytes )
+    {
+        final String key = directory.getPath() + " " + config;
+        FixtureStats stats = fixtures.get( key );
+        if ( stats == null )
+        {
+            stats = new FixtureStats( directory, String.valueOf( config ) );
+            fixtures.put( key, stats );
+        }
+
+        stats.latency.record( nanos );
+        stats.compiles++;
+        if ( !Boolean.TRUE.equals( result.getResult() ) )
+        {
+            stats.failures++;
+        }
+        if ( result.isTimedOut() )
+        {
+            stats.timeouts++;
+        }
+        stats.classes += classes;
+        stats.bytes += bytes;
+
+        final CompileMemory memory = result.getMemory();
+        if ( memory != null && memory.isAttributable() )
+        {
+            stats.memoryCompiles++;
+            stats.allocatedBytes += Math.max( 0, memory.getAllocatedBytes() );
+            stats.gcCount += memory.getGcCount();
+            stats.gcMillis += memory.getGcMillis();
+        }
+        else if ( memory != null )
+        {
+            stats.unattributed++;
+        }
+
+        for ( final ProcessorProfile profile : result.getProcessorProfiles() )
+        {
+            long[] totals = processors.get( profile.getProcessor() );
+            if ( totals == null )
+            {
+                totals = new long[3];
+                processors.put( profile.getProcessor(), totals );
+            }
+            totals[0]++;
+            totals[1] += profile.getTotalNanos();
+            totals[2] += Math.max( 0, profile.getAllocatedBytes() );
+        }
+    }
+
+    synchronized void cacheHit( final String cache )
+    {
+        counters( cache )[0]++;
+    }
+
+    synchronized void cacheMiss( final String cache )
+    {
+        counters( cache )[1]++;
+    }
+
+    private long[] counters( final String cache )
+    {
+        long[] counters = caches.get( cache );
+        if ( counters == null )
+        {
+            counters = new long[2];
+            caches.put( cache, counters );
+        }
+
+        return counters;
+    }
+
+    /**
+     * Latency histogram of every compile of the named fixture directory, across configs.
+     */
+    public synchronized LatencyHistogram getLatency( final String fixtureName )
+    {
+        final LatencyHistogram merged = new LatencyHistogram();
+        for ( final FixtureStats stats : fixtures.values() )
+        {
+            if ( stats.name.equals( fixtureName ) )
+            {
+                stats.latency.mergeInto( merged );
+            }
+        }
+
+        return merged;
+    }
+
+    /**
+     * Fraction of lookups in the named cache (e.g. <code>abi-jar</code>) that hit, or -1 if it was never used.
+     */
+    public synchronized double getCacheHitRate( final String cache )
+    {
+        final long[] counters = caches.get( cache );
+        if ( counters == null || counters[0] + counters[1] == 0 )
+        {
+            return -1;
+        }
+
+        return (double) counters[0] / ( counters[0] + counters[1] );
+    }
+
+    /**
+     * Describe every budget violation so far, for all fixtures, over all of their compiles.
+     */
+    public synchronized List<String> checkBudgets()
+    {
+        final List<String> violations = new ArrayList<>();
+        for ( final CompileBudget budget : budgets )
+        {
+            for ( final FixtureStats stats : fixtures.values() )
+            {
+                final String violation = stats.check( budget, stats.latency.getCount() );
+                if ( violation != null )
+                {
+                    violations.add( violation );
+                }
+            }
+        }
+
+        return violations;
+    }
+
+    /**
+     * Describe budget violations among the given compiles (e.g. one test's), against this instance's budgets. The
+     * percentiles come from those compiles only, but a budget's minimum sample count is met by all compiles of the
+     * fixture recorded here, so a test compiling a warm fixture once is still checked.
+     */
+    synchronized List<String> checkBudgets( final CompileStatistics samples )
+    {
+        final List<String> violations = new ArrayList<>();
+        synchronized ( samples )
+        {
+            for ( final CompileBudget budget : budgets )
+            {
+                for ( final Map.Entry<String, FixtureStats> entry : samples.fixtures.entrySet() )
+                {
+                    final FixtureStats all = fixtures.get( entry.getKey() );
+                    final FixtureStats stats = entry.getValue();
+                    final String violation =
+                        stats.check( budget, all == null ? stats.latency.getCount() : all.latency.getCount() );
+                    if ( violation != null )
+                    {
+                        violations.add( violation );
+                    }
+                }
+            }
+        }
+
+        return violations;
+    }
+
+    public synchronized void reset()
+    {
+        fixtures.clear();
+        caches.clear();
+        processors.clear();
+    }
+
+    public void writeReport( final File file )
+        throws IOException
+    {
+        final File dir = file.getAbsoluteFile()
+                             .getParentFile();
+        if ( dir != null )
+        {
+            dir.mkdirs();
+        }
+
+        try (Writer writer = new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" ))
+        {
+            writeReport( writer );
+        }
+    }
+
+    public synchronized void writeReport( final Writer writer )
+        throws IOException
+    {
+        long compiles = 0;
+        long failures = 0;
+        long timeouts = 0;
+        long allocatedBytes = 0;
+        long gcCount = 0;
+        long gcMillis = 0;
+        long unattributed = 0;
+        for ( final FixtureStats stats : fixtures.values() )
+        {
+            compiles += stats.compiles;
+            failures += stats.failures;
+            timeouts += stats.timeouts;
+            allocatedBytes += stats.allocatedBytes;
+            gcCount += stats.gcCount;
+            gcMillis += stats.gcMillis;
+            unattributed += stats.unattributed;
+        }
+
+        final StringBuilder sb = new StringBuilder( "{\n" );
+        sb.append( "  \"compiles\": " )
+          .append( compiles )
+          .append( ",\n  \"failures\": " )
+          .append( failures )
+          .append( ",\n  \"timeouts\": " )
+          .append( timeouts )
+          .append( ",\n  \"memory\": { \"allocatedBytes\": " )
+          .append( allocatedBytes )
+          .append( ", \"gcCount\": " )
+          .append( gcCount )
+          .append( ", \"gcMillis\": " )
+          .append( gcMillis )
+          .append( ", \"unattributed\": " )
+          .append( unattributed )
+          .append( " }" )
+          .append( ",\n  \"fixtures\": [" );
+
+        boolean first = true;
+        for ( final FixtureStats stats : fixtures.values() )
+        {
+            sb.append( first ? "\n" : ",\n" );
+            stats.toJson( sb );
+            first = false;
+        }
+
+        sb.append( "\n  ],\n  \"caches\": {" );
+        first = true;
+        for ( final Map.Entry<String, long[]> entry : caches.entrySet() )
+        {
+            final long[] counters = entry.getValue();
+            sb.append( first ? "\n" : ",\n" )
+              .append( "    " )
+              .append( quote( entry.getKey() ) )
+              .append( ": { \"hits\": " )
+              .append( counters[0] )
+              .append( ", \"misses\": " )
+              .append( counters[1] )
+              .append( ", \"hitRate\": " )
+              .append( number( getCacheHitRate( entry.getKey() ) ) )
+              .append( " }" );
+            first = false;
+        }
+
+        sb.append( "\n  },\n  \"processors\": {" );
+        first = true;
+        for ( final Map.Entry<String, long[]> entry : processors.entrySet() )
+        {
+            final long[] totals = entry.getValue();
+            sb.append( first ? "\n" : ",\n" )
+              .append( "    " )
+              .append( quote( entry.getKey() ) )
+              .append( ": { \"compiles\": " )
+              .append( totals[0] )
+              .append( ", \"millis\": " )
+              .append( number( totals[1] / 1000000.0 ) )
+              .append( ", \"allocatedBytes\": " )
+              .append( totals[2] )
+              .append( " }" );
+            first = false;
+        }
+
+        sb.append( "\n  },\n  \"budgets\": [" );
+        first = true;
+        for ( final CompileBudget budget : budgets )
+        {
+            sb.append( first ? "\n" : ",\n" )
+              .append( "    { \"budget\": " )
+              .append( quote( budget.toString() ) )
+              .append( ", \"violations\": [" );
+
+            boolean firstViolation = true;
+            for ( final FixtureStats stats : fixtures.values() )
+            {
+                final String violation = stats.check( budget, stats.latency.getCount() );
+                if ( violation != null )
+                {
+                    sb.append( firstViolation ? " " : ", " )
+                      .append( quote( violation ) );
+                    firstViolation = false;
+                }
+            }
+
+            sb.append( " ] }" );
+            first = false;
+        }
+
+        sb.append( "\n  ]\n}\n" );
+        writer.write( sb.toString() );
+    }
+
+    private void writeReportQuietly( final File report )
+    {
+        final Logger logger = LoggerFactory.getLogger( getClass() );
+        try
+        {
+            writeReport( report );
+        }
+        catch ( final IOException e )
+        {
+            logger.warn( "Cannot write compile statistics to: " + report, e );
+        }
+    }
+
+    static File getReportFile()
+    {
+        final String path = System.getProperty( REPORT_PROPERTY );
+        if ( path == null || path.trim()
+                                 .isEmpty() )
+        {
+            return null;
+        }
+
+        return new File( path.trim() );
+    }
+
+    private static String number( final double value )
+    {
+        return String.format( Locale.ROOT, "%.3f", value );
+    }
+
+    private static String quote( final String value )
+    {
+        final StringBuilder sb = new StringBuilder( value.length() + 2 ).append( '"' );
+        for ( final char c : value.toCharArray() )
+        {
+            switch ( c )
+            {
+                case '"':
+                case '\\':
+                {
+                    sb.append( '\\' )
+                      .append( c );
+                    break;
+                }
+                case '\n':
+                {
+                    sb.append( "\\n" );
+                    break;
+                }
+                case '\r':
+                {
+                    sb.append( "\\r" );
+                    break;
+                }
+                case '\t':
+                {
+                    sb.append( "\\t" );
+                    break;
+                }
+                default:
+                {
+                    if ( c < 0x20 )
+                    {
+                        sb.append( String.format( "\\u%04x", (int) c ) );
+                    }
+                    else
+                    {
+                        sb.append( c );
+                    }
+                }
+            }
+        }
+
+        return sb.append( '"' )
+                 .toString();
+    }
+
+    private static final class FixtureStats
+    {
+        private final String name;
+
+        private final File directory;
+
+        private final String config;
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private long compiles;
+
+        private long failures;
+
+        private long timeouts;
+
+        private long classes;
+
+        private long bytes;
+
+        private long allocatedBytes;
+
+        private long gcCount;
+
+        private long gcMillis;
+
+        // compiles whose memory figures are included above, and those left out as batched or overlapped.
+        private long memoryCompiles;
+
+        private long unattributed;
+
+        FixtureStats( final File directory, final String config )
+        {
+            this.name = directory.getName();
+            this.directory = directory;
+            this.config = config;
+        }
+
+        /**
+         * @param samples compiles of the fixture counted towards the budget's minimum
+         */
+        String check( final CompileBudget budget, final long samples )
+        {
+            if ( !budget.appliesTo( name ) || samples < budget.getMinSamples() )
+            {
+                return null;
+            }
+
+            final double actual = latency.getPercentileMillis( budget.getPercentile() );
+            if ( actual <= budget.getMaxMillis() )
+            {
+                return null;
+            }
+
+            return String.format( Locale.ROOT, "%s exceeded by %s [%s]: %.1fms over %d compiles", budget,
+                                  directory.getPath(), config, actual, latency.getCount() );
+        }
+
+        void toJson( final StringBuilder sb )
+        {
+            sb.append( "    {\n      \"fixture\": " )
+              .append( quote( name ) )
+              .append( ",\n      \"directory\": " )
+              .append( quote( directory.getPath() ) )
+              .append( ",\n      \"config\": " )
+              .append( quote( config ) )
+              .append( ",\n      \"compiles\": " )
+              .append( compiles )
+              .append( ",\n      \"failures\": " )
+              .append( failures )
+              .append( ",\n      \"timeouts\": " )
+              .append( timeouts )
+              .append( ",\n      \"classes\": " )
+              .append( classes )
+              .append( ",\n      \"bytes\": " )
+              .append( bytes )
+              .append( ",\n      \"memory\": { \"allocatedBytes\": " )
+              .append( allocatedBytes )
+              .append( ", \"allocatedBytesPerCompile\": " )
+              .append( memoryCompiles == 0 ? 0 : allocatedBytes / memoryCompiles )
+              .append( ", \"gcCount\": " )
+              .append( gcCount )
+              .append( ", \"gcMillis\": " )
+              .append( gcMillis )
+              .append( ", \"unattributed\": " )
+              .append( unattributed )
+              .append( " }" )
+              .append( ",\n      \"latencyMillis\": { \"min\": " )
+              .append( number( latency.getMinMillis() ) )
+              .append( ", \"mean\": " )
+              .append( number( latency.getMeanMillis() ) );
+
+            for ( final double p : REPORTED_PERCENTILES )
+            {
+                sb.append( ", \"p" )
+                  .append( (long) p )
+                  .append( "\": " )
+                  .append( number( latency.getPercentileMillis( p ) ) );
+            }
+
+            sb.append( ", \"max\": " )
+              .append( number( latency.getMaxMillis() ) )
+              .append( " },\n      \"histogram\": [" );
+
+            boolean first = true;
+            for ( final double[] bucket : latency.getBuckets() )
+            {
+                sb.append( first ? " " : ", " )
+                  .append( "{ \"leMillis\": " )
+                  .append( number( bucket[0] ) )
+                  .append( ", \"count\": " )
+                  .append( (long) bucket[1] )
+                  .append( " }" );
+                first = false;
+            }
+
+            sb.append( " ]\n    }" );
+        }
+    }
+
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Wall-clock time of a compile, split by javac phase (<code>PARSE</code>, <code>ENTER</code>,
+ * <code>ANALYZE</code>, <code>GENERATE</code>, <code>ANNOTATION_PROCESSING</code>, ...) as reported by javac's task
+ * events. Phases overlap (annotation processing encloses parsing and entering generated sources, for example), so the
+ * per-phase times don't add up to the total.
+ * <p>
+ * If the compile timed out, {@link #getRunningPhase()} names the phase javac was in at that moment.
+ */
+public final class CompileTimings
+{
+
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+
+    private final Map<String, Integer> depth = new LinkedHashMap<>();
+
+    private final Map<String, Long> started = new LinkedHashMap<>();
+
+    private final long start = System.nanoTime();
+
+    private long end;
+
+    private String runningPhase;
+
+    private int passes;
+
+    private boolean timedOut;
+
+    private String timedOutPhase;
+
+    private int timedOutPass;
+
+    public synchronized Map<String, Long> getPhaseNanos()
+    {
+        return Collections.unmodifiableMap( new LinkedHashMap<>( phaseNanos ) );
+    }
+
+    public synchronized long getTotalNanos()
+    {
+        return ( end > 0 ? end : System.nanoTime() ) - start;
+    }
+
+    /**
+     * Number of javac invocations: processing passes plus the final compile.
+     */
+    public synchronized int getPasses()
+    {
+        return passes;
+    }
+
+    public synchronized boolean isTimedOut()
+    {
+        return timedOut;
+    }
+
+    /**
+     * The phase javac was in when the compile timed out, or, if it didn't, the last phase to start. Null if javac
+     * reported no phases.
+     */
+    public synchronized String getRunningPhase()
+    {
+        return timedOut ? timedOutPhase : runningPhase;
+    }
+
+    /**
+     * The pass (counting from 1) that was running when the compile timed out, or 0.
+     */
+    public synchronized int getTimedOutPass()
+    {
+        return timedOutPass;
+    }
+
+    synchronized void passStarted()
+    {
+        passes++;
+    }
+
+    synchronized void phaseStarted( final String phase )
+    {
+        runningPhase = phase;
+
+        final Integer d = depth.get( phase );
+        if ( d == null || d == 0 )
+        {
+            started.put( phase, System.nanoTime() );
+            depth.put( phase, 1 );
+        }
+        else
+        {
+            depth.put( phase, d + 1 );
+        }
+    }
+
+    synchronized void phaseFinished( final String phase )
+    {
+        final Integer d = depth.get( phase );
+        if ( d == null || d == 0 )
+        {
+            return;
+        }
+
+        if ( d == 1 )
+        {
+            final Long total = phaseNanos.get( phase );
+            final long elapsed = System.nanoTime() - started.remove( phase );
+            phaseNanos.put( phase, ( total == null ? 0 : total ) + elapsed );
+        }
+
+        depth.put( phase, d - 1 );
+    }
+
+    synchronized void timedOut()
+    {
+        if ( !timedOut )
+        {
+            timedOut = true;
+            timedOutPhase = runningPhase;
+            timedOutPass = passes;
+        }
+    }
+
+    /**
+     * Fold in the timings of a task that ran alongside this compile's own (e.g. one partition of a partitioned
+     * compile). Phase times are summed, so with concurrent tasks they can exceed the wall-clock total.
+     */
+    void add( final CompileTimings other )
+    {
+        final Map<String, Long> otherPhases;
+        final int otherPasses;
+        final boolean otherTimedOut;
+        final String otherPhase;
+        synchronized ( other )
+        {
+            otherPhases = new LinkedHashMap<>( other.phaseNanos );
+            otherPasses = other.passes;
+            otherTimedOut = other.timedOut;
+            otherPhase = other.getRunningPhase();
+        }
+
+        synchronized ( this )
+        {
+            for ( final Map.Entry<String, Long> entry : otherPhases.entrySet() )
+            {
+                final Long total = phaseNanos.get( entry.getKey() );
+                phaseNanos.put( entry.getKey(), ( total == null ? 0 : total ) + entry.getValue() );
+            }
+
+            if ( otherTimedOut && !timedOut )
+            {
+                timedOut = true;
+                timedOutPhase = otherPhase;
+                timedOutPass = passes + 1;
+            }
+            passes += otherPasses;
+        }
+    }
+
+    synchronized void finished()
+    {
+        end = System.nanoTime();
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        final StringBuilder sb = new StringBuilder();
+        sb.append( String.format( "%.3f ms in %d pass(es)", getTotalNanos() / 1000000.0, passes ) );
+        if ( timedOut )
+        {
+            sb.append( ", TIMED OUT in pass " )
+              .append( timedOutPass )
+              .append( " during: " )
+              .append( timedOutPhase );
+        }
+
+        for ( final Map.Entry<String, Long> entry : phaseNanos.entrySet() )
+        {
+            sb.append( String.format( "\n  %s: %.3f ms", entry.getKey(), entry.getValue() / 1000000.0 ) );
+        }
+
+        return sb.toString();
+    }
+
+}
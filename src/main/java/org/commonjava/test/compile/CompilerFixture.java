@@ -18,8 +18,12 @@ package org.commonjava.test.compile;
 import static org.apache.commons.lang.StringUtils.join;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
@@ -31,11 +35,24 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Processor;
 import javax.tools.Diagnostic;
 import javax.tools.DiagnosticCollector;
 import javax.tools.JavaCompiler;
@@ -47,6 +64,8 @@ import javax.tools.ToolProvider;
 import org.apache.commons.io.IOUtils;
 import org.junit.rules.ExternalResource;
 import org.junit.rules.TemporaryFolder;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -79,13 +98,92 @@ public class CompilerFixture
 
     private final TemporaryFolder temp;
 
-    private final Set<CompilerResult> results = new HashSet<>();
+    private static final long DEFAULT_WATCH_DEBOUNCE_MILLIS = 200;
+
+    static
+    {
+        if ( Boolean.getBoolean( CompilerPrewarmer.PREWARM_PROPERTY ) )
+        {
+            CompilerPrewarmer.prewarm();
+        }
+    }
+
+    private final ClassLoaderLeakTracker leakTracker = new ClassLoaderLeakTracker();
+
+    /**
+     * Compiles made since the last {@link #after()}, i.e. by the current test, which its budgets are checked against.
+     */
+    private final CompileStatistics testStatistics = new CompileStatistics();
+
+    private final List<FixtureWatch> watches = new ArrayList<>();
+
+    private volatile Set<CompilerResult> results = newResultSet( ResultRetention.STRONG );
+
+    private boolean leakCheck;
+
+    private CompileBatchScheduler batchScheduler;
+
+    private volatile String testName;
 
     public CompilerFixture( final TemporaryFolder temp )
     {
         this.temp = temp;
     }
 
+    public CompilerFixture withResultRetention( final ResultRetention retention )
+    {
+        final Set<CompilerResult> retained = newResultSet( retention );
+        synchronized ( results )
+        {
+            retained.addAll( results );
+        }
+        results = retained;
+        return this;
+    }
+
+    /**
+     * After each test, force a garbage collection and fail the test if class loaders of this fixture's results are
+     * still reachable.
+     */
+    public CompilerFixture withClassLoaderLeakCheck()
+    {
+        this.leakCheck = true;
+        return this;
+    }
+
+    /**
+     * Let the scheduler merge this fixture's compiles with others arriving at about the same time (e.g. from tests
+     * running in parallel) into a single javac invocation. See {@link CompileBatchScheduler}.
+     */
+    public CompilerFixture withBatchScheduler( final CompileBatchScheduler scheduler )
+    {
+        this.batchScheduler = scheduler;
+        return this;
+    }
+
+    private static Set<CompilerResult> newResultSet( final ResultRetention retention )
+    {
+        // results can also arrive from watch threads.
+        if ( retention == ResultRetention.WEAK )
+        {
+            return Collections.synchronizedSet( Collections.newSetFromMap( new WeakHashMap<CompilerResult, Boolean>() ) );
+        }
+
+        return Collections.synchronizedSet( Collections.newSetFromMap( new HashMap<CompilerResult, Boolean>() ) );
+    }
+
+    @Override
+    public Statement apply( final Statement base, final Description description )
+    {
+        testName = description.getDisplayName();
+        return super.apply( base, description );
+    }
+
+    void setTestName( final String testName )
+    {
+        this.testName = testName;
+    }
+
     private File getResourceDirectory( final String dir, final String className )
     {
         final String path = Paths.get( dir, className.replace( '.', '/' ) + ".java" )
@@ -132,18 +230,168 @@ public class CompilerFixture
 
     public CompilerResult compile( final File directory, final CompilerFixtureConfig config )
         throws IOException
+    {
+        return compile( directory, config, Collections.<CompilerResult> emptyList() );
+    }
+
+    /**
+     * Compile every fixture in the graph, each after (and against the output of) the fixtures it depends on.
+     * Fixtures whose dependencies are done compile in parallel. Upstream output is referenced in place, on the
+     * downstream compile's classpath and through its class loader's parents, rather than copied.
+     *
+     * @return results by fixture name, in dependency order
+     */
+    public Map<String, CompilerResult> compile( final FixtureGraph graph )
+        throws IOException
+    {
+        final List<String> order = graph.sort();
+        final int threads = Math.max( 1, Math.min( order.size(), Runtime.getRuntime()
+                                                                        .availableProcessors() ) );
+        final ExecutorService executor =
+            Executors.newFixedThreadPool( threads, new FixtureThreads( "compiler-fixture-graph" ) );
+
+        // submitted in dependency order, so a task only ever waits on tasks that are already running or done.
+        final Map<String, Future<CompilerResult>> futures = new LinkedHashMap<>();
+        try
+        {
+            for ( final String name : order )
+            {
+                final Map<String, Future<CompilerResult>> deps = new LinkedHashMap<>();
+                for ( final String dep : graph.getDependencies( name ) )
+                {
+                    deps.put( dep, futures.get( dep ) );
+                }
+
+                futures.put( name, executor.submit( new Callable<CompilerResult>()
+                {
+                    @Override
+                    public CompilerResult call()
+                        throws Exception
+                    {
+                        final List<CompilerResult> upstream = new ArrayList<>( deps.size() );
+                        for ( final Map.Entry<String, Future<CompilerResult>> dep : deps.entrySet() )
+                        {
+                            final CompilerResult result = dep.getValue()
+                                                             .get();
+                            if ( result == null )
+                            {
+                                throw new IOException( "Upstream fixture: " + dep.getKey() + " of: " + name
+                                    + " produced no result. Is its directory missing? "
+                                    + graph.getDirectory( dep.getKey() ) );
+                            }
+
+                            upstream.add( result );
+                        }
+
+                        logger.debug( "Compiling fixture: {} against: {}", name, graph.getDependencies( name ) );
+                        return compile( graph.getDirectory( name ), graph.getConfig( name ), upstream );
+                    }
+                } ) );
+            }
+
+            final Map<String, CompilerResult> compiled = new LinkedHashMap<>();
+            for ( final Map.Entry<String, Future<CompilerResult>> entry : futures.entrySet() )
+            {
+                compiled.put( entry.getKey(), entry.getValue()
+                                                   .get() );
+            }
+
+            return compiled;
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread()
+                  .interrupt();
+            throw new IOException( "Interrupted while compiling fixture graph.", e );
+        }
+        catch ( final ExecutionException e )
+        {
+            final Throwable cause = e.getCause();
+            if ( cause instanceof IOException )
+            {
+                throw (IOException) cause;
+            }
+            else if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+
+            throw new IOException( "Failed to compile fixture graph: " + cause.getMessage(), cause );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private CompilerResult compile( final File directory, final CompilerFixtureConfig config,
+                                    final List<CompilerResult> upstream )
+        throws IOException
+    {
+        return compile( directory, config, upstream, null );
+    }
+
+    /**
+     * @param fileManager file manager to compile with, kept open for the caller's next compile (e.g. a watch's
+     *            rebuilds); if null, the compile uses its own and closes it when done.
+     */
+    CompilerResult compile( final File directory, final CompilerFixtureConfig config,
+                            final List<CompilerResult> upstream, final StandardJavaFileManager fileManager )
+        throws IOException
     {
         if ( directory == null || !directory.isDirectory() )
         {
             return null;
         }
 
-        final File target = temp.newFolder( directory.getName() + "-classes" );
+        final long start = System.nanoTime();
+        final CompileMemory memory = new CompileMemory();
+        final StandardJavaFileManager fm = fileManager != null ? fileManager
+                        : ToolProvider.getSystemJavaCompiler().getStandardFileManager( null, null, null );
 
-        final List<File> sources = scan( directory, "**/*.java" );
+        // let a batch wait for this compile only while it is actually running.
+        final CompileBatchScheduler scheduler = batchScheduler;
+        if ( scheduler != null )
+        {
+            scheduler.begin();
+        }
+
+        try
+        {
+            return compile( directory, config, upstream, start, memory, fm, scheduler );
+        }
+        finally
+        {
+            if ( scheduler != null )
+            {
+                scheduler.end();
+            }
+
+            // no-op unless the compile failed before finishing its measurement, which must still end its overlap.
+            memory.finished();
+            if ( fileManager == null )
+            {
+                IOUtils.closeQuietly( fm );
+            }
+        }
+    }
+
+    private CompilerResult compile( final File directory, final CompilerFixtureConfig config,
+                                    final List<CompilerResult> upstream, final long start,
+                                    final CompileMemory memory, final StandardJavaFileManager fileManager,
+                                    final CompileBatchScheduler scheduler )
+        throws IOException
+    {
+        final ClassOutputCounter output = new ClassOutputCounter();
+        final File target = newFolder( directory.getName() + "-classes" );
+
+        final List<File> roots = new ArrayList<>();
+        roots.add( directory );
+        roots.addAll( config.getSourceRoots() );
+
+        final List<File> sources = resolveSources( roots, config );
 
         final JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
-        final StandardJavaFileManager fileManager = javac.getStandardFileManager( null, null, null );
         final Set<JavaFileObject> objects = new HashSet<>();
 
         for ( final JavaFileObject jfo : fileManager.getJavaFileObjectsFromFiles( sources ) )
@@ -153,45 +401,114 @@ public class CompilerFixture
 
         final DiagnosticCollector<JavaFileObject> diags = new DiagnosticCollector<>();
 
-        final List<String> options = new ArrayList<>( Arrays.asList( "-g", "-d", target.getCanonicalPath() ) );
+        final CompileTimings timings = new CompileTimings();
+        final long deadline =
+            config.getCompileTimeoutMillis() > 0 ? System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos( config.getCompileTimeoutMillis() ) : 0;
+
+        final List<String> options = new ArrayList<>();
+        if ( !config.isAnalyzeOnly() )
+        {
+            options.add( "-g" );
+        }
 
         options.addAll( config.getExtraOptions() );
 
+        Boolean implicit = config.getImplicitCompilation();
+        if ( implicit == null )
+        {
+            // every source is already explicit unless we start from root classes or leave some out.
+            implicit = !config.getRootClasses()
+                              .isEmpty() || !config.getExcludes()
+                                                   .isEmpty();
+        }
+        options.add( implicit ? "-implicit:class" : "-implicit:none" );
+
+        final StringBuilder cp = new StringBuilder();
+        if ( config.isCallerClasspathAbi() )
+        {
+            final ClasspathAbiSnapshot snapshot = ClasspathAbiSnapshot.forCallerClasspath();
+            cp.append( snapshot.getAbiClasspath() );
+
+            // processors have to run, so they need their method bodies.
+            options.add( "-processorpath" );
+            options.add( snapshot.getOriginalClasspath() );
+        }
+        else if ( !upstream.isEmpty() )
+        {
+            cp.append( System.getProperty( "java.class.path", "" ) );
+        }
+
+        for ( final File upstreamClasses : getUpstreamClasses( upstream ) )
+        {
+            if ( cp.length() > 0 )
+            {
+                cp.append( File.pathSeparatorChar );
+            }
+            cp.append( upstreamClasses.getCanonicalPath() );
+        }
+
+        if ( cp.length() > 0 )
+        {
+            options.add( "-classpath" );
+            options.add( cp.toString() );
+        }
+
         final StringBuilder sp = new StringBuilder();
-        sp.append( directory.getCanonicalPath() )
-          .append( ';' )
-          .append( target.getCanonicalPath() );
+        for ( final File root : roots )
+        {
+            if ( sp.length() > 0 )
+            {
+                sp.append( File.pathSeparatorChar );
+            }
+            sp.append( root.getCanonicalPath() );
+        }
 
         File generatedSourceDir = null;
 
         final List<String> procOptions = new ArrayList<>( options );
+        procOptions.add( "-d" );
+        procOptions.add( target.getCanonicalPath() );
         procOptions.add( "-proc:only" );
 
         final Set<File> seenSources = new HashSet<>( sources );
         Boolean result = Boolean.TRUE;
 
+        final Map<Class<? extends AbstractProcessor>, ProcessorProfile> profiles = new LinkedHashMap<>();
+
         final List<Class<? extends AbstractProcessor>> annoProcessors = config.getAnnotationProcessors();
         if ( !annoProcessors.isEmpty() )
         {
-            final StringBuilder sb = new StringBuilder();
-            for ( final Class<? extends AbstractProcessor> annoProcessor : annoProcessors )
+            if ( config.isProcessorProfiling() )
             {
-                if ( sb.length() > 0 )
+                // processor instances are handed to each task directly, wrapped for profiling.
+                for ( final Class<? extends AbstractProcessor> annoProcessor : annoProcessors )
                 {
-                    sb.append( "," );
+                    profiles.put( annoProcessor, new ProcessorProfile( annoProcessor.getName() ) );
                 }
-
-                sb.append( annoProcessor.getCanonicalName() );
             }
+            else
+            {
+                final StringBuilder sb = new StringBuilder();
+                for ( final Class<? extends AbstractProcessor> annoProcessor : annoProcessors )
+                {
+                    if ( sb.length() > 0 )
+                    {
+                        sb.append( "," );
+                    }
+
+                    sb.append( annoProcessor.getCanonicalName() );
+                }
 
-            procOptions.add( "-processor" );
-            procOptions.add( sb.toString() );
+                procOptions.add( "-processor" );
+                procOptions.add( sb.toString() );
+            }
 
-            generatedSourceDir = temp.newFolder( directory.getName() + "-generated-sources" );
+            generatedSourceDir = newFolder( directory.getName() + "-generated-sources" );
             procOptions.add( "-s" );
             procOptions.add( generatedSourceDir.getCanonicalPath() );
 
-            sp.append( ';' )
+            sp.append( File.pathSeparatorChar )
               .append( generatedSourceDir.getCanonicalPath() );
 
             procOptions.add( "-sourcepath" );
@@ -210,8 +527,14 @@ public class CompilerFixture
                     objects.add( jfo );
                 }
 
-                final CompilationTask task = javac.getTask( null, fileManager, diags, procOptions, null, objects );
-                result = task.call();
+                final DiagnosticCollector<JavaFileObject> taskDiags = taskDiagnostics( config, diags );
+                final CompilationTask task =
+                    javac.getTask( null, output.wrap( fileManager ), taskDiags, procOptions, null, objects );
+                if ( !profiles.isEmpty() )
+                {
+                    task.setProcessors( newProfilingProcessors( profiles, pass, config ) );
+                }
+                result = call( task, taskDiags, diags, timings, memory, config, deadline, false );
 
                 nextSources = scan( generatedSourceDir, "**/*.java" );
 
@@ -221,61 +544,454 @@ public class CompilerFixture
                 seenSources.addAll( nextSources );
                 pass++;
             }
-            while ( pass < config.getMaxAnnotationProcessorPasses() && !nextSources.isEmpty() );
+            while ( pass < config.getMaxAnnotationProcessorPasses() && !nextSources.isEmpty()
+                && !timings.isTimedOut() );
         }
 
         if ( result )
         {
-            options.add( "-sourcepath" );
-            options.add( sp.toString() );
-
             options.add( "-proc:none" );
 
-            for ( final JavaFileObject jfo : fileManager.getJavaFileObjectsFromFiles( seenSources ) )
+            if ( scheduler != null && annoProcessors.isEmpty() && !config.hasTimeouts()
+                && !config.isAnalyzeOnly() )
             {
-                objects.add( jfo );
+                result = scheduler.compile( options, sp.toString(), seenSources, target, diags, output, memory );
             }
+            else
+            {
+                options.add( "-d" );
+                options.add( target.getCanonicalPath() );
+                options.add( "-sourcepath" );
+                options.add( sp.toString() );
+
+                final List<List<File>> partitions =
+                    config.getPartitionThreads() > 1 && annoProcessors.isEmpty() && !implicit
+                                    ? SourcePartitioner.partition( sorted( seenSources ) )
+                                    : Collections.<List<File>> emptyList();
+
+                if ( partitions.size() > 1 )
+                {
+                    result =
+                        compilePartitions( javac, options, partitions, diags, timings, memory, output, config,
+                                           deadline );
+                }
+                else
+                {
+                    for ( final JavaFileObject jfo : fileManager.getJavaFileObjectsFromFiles( seenSources ) )
+                    {
+                        objects.add( jfo );
+                    }
 
-            final CompilationTask task = javac.getTask( null, fileManager, diags, options, null, objects );
-            result = task.call();
+                    final DiagnosticCollector<JavaFileObject> taskDiags = taskDiagnostics( config, diags );
+                    final CompilationTask task =
+                        javac.getTask( null, output.wrap( fileManager ), taskDiags, options, null, objects );
+                    result = call( task, taskDiags, diags, timings, memory, config, deadline, config.isAnalyzeOnly() );
+                    if ( config.isAnalyzeOnly() && Boolean.TRUE.equals( result ) )
+                    {
+                        result = !hasErrors( diags );
+                    }
+                }
+            }
 
-            logger.debug( "Compiled classes:\n  {}\n\n", new JoinLogString( scan( target, "**/*.class" ), "\n  " ) );
+            if ( logger.isDebugEnabled() )
+            {
+                logger.debug( "Compiled classes:\n  {}\n\n",
+                              new JoinLogString( scan( target, "**/*.class" ), "\n  " ) );
+            }
         }
         else
         {
             logger.warn( "Annotation processing must have failed. Skipping compilation step." );
         }
 
-        for ( final Diagnostic<? extends JavaFileObject> diag : diags.getDiagnostics() )
+        timings.finished();
+        memory.finished();
+        if ( timings.isTimedOut() )
+        {
+            logger.warn( "Compile of: {} timed out: {}", directory, timings );
+        }
+        else
+        {
+            logger.debug( "Compile of: {} took: {}, {}", directory, timings, memory );
+        }
+
+        if ( logger.isErrorEnabled() )
+        {
+            for ( final Diagnostic<? extends JavaFileObject> diag : diags.getDiagnostics() )
+            {
+                logger.error( "{}", diag );
+            }
+        }
+
+        // a processor that timed out may still be running; the result gets what it recorded up to now.
+        final List<ProcessorProfile> profileSnapshots = new ArrayList<>( profiles.size() );
+        for ( final ProcessorProfile profile : profiles.values() )
+        {
+            profileSnapshots.add( profile.snapshot() );
+        }
+
+        if ( logger.isDebugEnabled() )
         {
-            logger.error( String.valueOf( diag ) );
+            for ( final ProcessorProfile profile : profileSnapshots )
+            {
+                logger.debug( "Processor profile: {}", profile );
+            }
         }
 
         final CompilerResult cr = new CompilerResultBuilder().withClasses( target )
                                                              .withDiagnosticCollector( diags )
                                                              .withGeneratedSources( generatedSourceDir )
                                                              .withResult( result )
+                                                             .withProcessorProfiles( profileSnapshots )
+                                                             .withUpstream( upstream )
+                                                             .withTimings( timings )
+                                                             .withMemory( memory )
                                                              .build();
 
+        recordStatistics( directory, config, System.nanoTime() - start, cr, output );
+
         results.add( cr );
         return cr;
     }
 
+    /**
+     * Compile independent groups of sources concurrently, each with its own javac task, file manager and diagnostics,
+     * into the shared classes directory. Compiles are never implicit here, so every class file is written by the task
+     * that owns its source.
+     */
+    private Boolean compilePartitions( final JavaCompiler javac, final List<String> options,
+                                       final List<List<File>> partitions,
+                                       final DiagnosticCollector<JavaFileObject> diags, final CompileTimings timings,
+                                       final CompileMemory memory, final ClassOutputCounter output,
+                                       final CompilerFixtureConfig config, final long deadline )
+        throws IOException
+    {
+        logger.debug( "Compiling {} independent partitions, up to {} at a time.", partitions.size(),
+                      config.getPartitionThreads() );
+
+        final ExecutorService executor =
+            Executors.newFixedThreadPool( Math.min( config.getPartitionThreads(), partitions.size() ),
+                                          new FixtureThreads( "compiler-fixture-partition" ) );
+
+        final List<Future<Boolean>> futures = new ArrayList<>( partitions.size() );
+        final List<DiagnosticCollector<JavaFileObject>> partitionDiags = new ArrayList<>( partitions.size() );
+        final List<CompileTimings> partitionTimings = new ArrayList<>( partitions.size() );
+        try
+        {
+            for ( final List<File> partition : partitions )
+            {
+                final DiagnosticCollector<JavaFileObject> pd = new DiagnosticCollector<>();
+                final CompileTimings pt = new CompileTimings();
+                partitionDiags.add( pd );
+                partitionTimings.add( pt );
+
+                futures.add( executor.submit( new Callable<Boolean>()
+                {
+                    @Override
+                    public Boolean call()
+                        throws Exception
+                    {
+                        final StandardJavaFileManager fm = javac.getStandardFileManager( null, null, null );
+                        try
+                        {
+                            final DiagnosticCollector<JavaFileObject> taskDiags = taskDiagnostics( config, pd );
+                            final CompilationTask task =
+                                javac.getTask( null, output.wrap( fm ), taskDiags, options, null,
+                                               fm.getJavaFileObjectsFromFiles( partition ) );
+
+                            final Boolean result =
+                                CompilerFixture.this.call( task, taskDiags, pd, pt, memory, config, deadline,
+                                                           config.isAnalyzeOnly() );
+
+                            return config.isAnalyzeOnly() && Boolean.TRUE.equals( result ) ? !hasErrors( pd ) : result;
+                        }
+                        finally
+                        {
+                            IOUtils.closeQuietly( fm );
+                        }
+                    }
+                } ) );
+            }
+
+            Boolean result = Boolean.TRUE;
+            for ( int i = 0; i < futures.size(); i++ )
+            {
+                if ( !Boolean.TRUE.equals( futures.get( i )
+                                                  .get() ) )
+                {
+                    result = Boolean.FALSE;
+                }
+
+                for ( final Diagnostic<? extends JavaFileObject> diag : partitionDiags.get( i )
+                                                                                      .getDiagnostics() )
+                {
+                    diags.report( diag );
+                }
+                timings.add( partitionTimings.get( i ) );
+            }
+
+            return result;
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread()
+                  .interrupt();
+            throw new IOException( "Interrupted while compiling partitions.", e );
+        }
+        catch ( final ExecutionException e )
+        {
+            final Throwable cause = e.getCause();
+            if ( cause instanceof IOException )
+            {
+                throw (IOException) cause;
+            }
+            else if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+
+            throw new IOException( "Failed to compile partitions: " + cause.getMessage(), cause );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<File> sorted( final Collection<File> files )
+    {
+        final List<File> result = new ArrayList<>( files );
+        Collections.sort( result );
+        return result;
+    }
+
+    private static boolean hasErrors( final DiagnosticCollector<JavaFileObject> diags )
+    {
+        for ( final Diagnostic<? extends JavaFileObject> diag : diags.getDiagnostics() )
+        {
+            if ( diag.getKind() == Diagnostic.Kind.ERROR )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void recordStatistics( final File directory, final CompilerFixtureConfig config, final long nanos,
+                                   final CompilerResult result, final ClassOutputCounter output )
+    {
+        CompileStatistics.getInstance()
+                         .record( directory, config, nanos, result, output.getClasses(), output.getBytes() );
+        testStatistics.record( directory, config, nanos, result, output.getClasses(), output.getBytes() );
+    }
+
+    /**
+     * The collector a javac task should report to: its own when it may time out (see {@link TaskRunner}), so that a
+     * worker still running after the timeout cannot add to <code>diags</code>.
+     */
+    private static DiagnosticCollector<JavaFileObject> taskDiagnostics(
+        final CompilerFixtureConfig config, final DiagnosticCollector<JavaFileObject> diags )
+    {
+        return config.hasTimeouts() ? new DiagnosticCollector<JavaFileObject>() : diags;
+    }
+
+    /**
+     * Run one javac invocation within whatever is left of the compile timeout, and within the pass timeout.
+     */
+    private Boolean call( final CompilationTask task, final DiagnosticCollector<JavaFileObject> taskDiags,
+                          final DiagnosticCollector<JavaFileObject> diags, final CompileTimings timings,
+                          final CompileMemory memory, final CompilerFixtureConfig config, final long deadline,
+                          final boolean analyzeOnly )
+        throws IOException
+    {
+        long timeout = TimeUnit.MILLISECONDS.toNanos( config.getPassTimeoutMillis() );
+        if ( deadline > 0 )
+        {
+            final long remaining = deadline - System.nanoTime();
+            if ( remaining <= 0 )
+            {
+                timings.timedOut();
+                return Boolean.FALSE;
+            }
+
+            timeout = timeout > 0 ? Math.min( timeout, remaining ) : remaining;
+        }
+
+        return TaskRunner.run( task, taskDiags, diags, timings, memory, timeout, analyzeOnly );
+    }
+
+    /**
+     * Class output of the upstream results and, transitively, of their own upstream results.
+     */
+    private Set<File> getUpstreamClasses( final List<CompilerResult> upstream )
+    {
+        final Set<File> classes = new LinkedHashSet<>();
+        for ( final CompilerResult cr : upstream )
+        {
+            classes.add( cr.getClasses() );
+            classes.addAll( getUpstreamClasses( cr.getUpstream() ) );
+        }
+
+        return classes;
+    }
+
+    private List<Processor> newProfilingProcessors( final Map<Class<? extends AbstractProcessor>, ProcessorProfile> profiles,
+                                                    final int pass, final CompilerFixtureConfig config )
+    {
+        final long budgetNanos = TimeUnit.MILLISECONDS.toNanos( config.getProcessorTimeBudgetMillis() );
+
+        final List<Processor> processors = new ArrayList<>( profiles.size() );
+        for ( final Map.Entry<Class<? extends AbstractProcessor>, ProcessorProfile> entry : profiles.entrySet() )
+        {
+            final Processor processor;
+            try
+            {
+                processor = entry.getKey()
+                                 .getDeclaredConstructor()
+                                 .newInstance();
+            }
+            catch ( final InvocationTargetException e )
+            {
+                throw new IllegalArgumentException( "Annotation processor constructor failed: "
+                    + entry.getKey()
+                           .getName(), e.getCause() );
+            }
+            catch ( final ReflectiveOperationException e )
+            {
+                throw new IllegalArgumentException( "Cannot instantiate annotation processor: "
+                    + entry.getKey()
+                           .getName(), e );
+            }
+
+            processors.add( new ProfilingProcessor( processor, entry.getValue(), pass, budgetNanos ) );
+        }
+
+        return processors;
+    }
+
+    /**
+     * Compile the directory now, then again (on a background thread) whenever files under it change, publishing each
+     * result to the watch's listeners. The watch is closed at the end of the test, if not before.
+     */
+    public FixtureWatch watch( final File directory, final CompilerFixtureConfig config )
+        throws IOException
+    {
+        return watch( directory, config, DEFAULT_WATCH_DEBOUNCE_MILLIS );
+    }
+
+    public FixtureWatch watch( final File directory, final CompilerFixtureConfig config, final long debounceMillis )
+        throws IOException
+    {
+        final FixtureWatch watch = new FixtureWatch( this, directory, config, debounceMillis );
+        synchronized ( watches )
+        {
+            watches.add( watch );
+        }
+
+        return watch;
+    }
+
+    /**
+     * Like {@link TemporaryFolder#newFolder(String)}, but picks a fresh name if the fixture has already been compiled
+     * (or is being watched) in this test. Directory creation is atomic, so concurrent compiles of the same fixture
+     * never share an output directory, and no lock is needed.
+     */
+    private File newFolder( final String name )
+        throws IOException
+    {
+        final Path root = temp.getRoot()
+                              .toPath();
+
+        String candidate = name;
+        for ( int i = 2;; i++ )
+        {
+            try
+            {
+                return Files.createDirectory( root.resolve( candidate ) )
+                            .toFile();
+            }
+            catch ( final FileAlreadyExistsException e )
+            {
+                candidate = name + "-" + i;
+            }
+        }
+    }
+
+    private List<File> resolveSources( final List<File> roots, final CompilerFixtureConfig config )
+        throws IOException
+    {
+        final List<File> sources = new ArrayList<>();
+        if ( !config.getRootClasses()
+                    .isEmpty() )
+        {
+            nextClass: for ( final String className : config.getRootClasses() )
+            {
+                final String path = className.replace( '.', '/' ) + ".java";
+                for ( final File root : roots )
+                {
+                    final File f = new File( root, path );
+                    if ( f.isFile() )
+                    {
+                        sources.add( f );
+                        continue nextClass;
+                    }
+                }
+
+                throw new FileNotFoundException( "Cannot find source for root class: " + className + " in: "
+                    + join( roots, ", " ) );
+            }
+
+            return sources;
+        }
+
+        for ( final File root : roots )
+        {
+            sources.addAll( scan( root, "**/*.java", config.getExcludes() ) );
+        }
+
+        return sources;
+    }
+
     public List<File> scan( final File directory, final String pattern )
         throws IOException
     {
-        final PathMatcher matcher = FileSystems.getDefault()
-                                               .getPathMatcher( "glob:" + directory.getCanonicalPath() + "/" + pattern );
+        return scan( directory, pattern, Collections.<String> emptyList() );
+    }
+
+    /**
+     * Find files under the directory matching the glob pattern, skipping anything (including whole sub-trees) that
+     * matches one of the exclude globs. All globs are relative to the directory.
+     */
+    public List<File> scan( final File directory, final String pattern, final Collection<String> excludes )
+        throws IOException
+    {
+        final FileSystem fs = FileSystems.getDefault();
+        final String base = directory.getCanonicalPath() + "/";
+        final PathMatcher matcher = fs.getPathMatcher( "glob:" + base + pattern );
+
+        final List<PathMatcher> excluded = new ArrayList<>( excludes.size() );
+        for ( final String exclude : excludes )
+        {
+            excluded.add( fs.getPathMatcher( "glob:" + base + exclude ) );
+        }
 
         final List<File> sources = new ArrayList<>();
         Files.walkFileTree( directory.toPath(), new SimpleFileVisitor<Path>()
         {
 
+            @Override
+            public FileVisitResult preVisitDirectory( final Path dir, final BasicFileAttributes attrs )
+                throws IOException
+            {
+                return isExcluded( dir ) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
             @Override
             public FileVisitResult visitFile( final Path file, final BasicFileAttributes attrs )
                 throws IOException
             {
-                if ( matcher.matches( file ) )
+                if ( matcher.matches( file ) && !isExcluded( file ) )
                 {
                     sources.add( file.toFile() );
                 }
@@ -283,20 +999,96 @@ public class CompilerFixture
                 return FileVisitResult.CONTINUE;
             }
 
+            private boolean isExcluded( final Path path )
+            {
+                for ( final PathMatcher exclude : excluded )
+                {
+                    if ( exclude.matches( path ) )
+                    {
+                        return true;
+                    }
+                }
+
+                return false;
+            }
+
         } );
 
         return sources;
     }
 
+    /**
+     * Close a result before the end of the test, releasing its class loader, and stop tracking it. Use this in long
+     * (e.g. parameterised) tests once a result's classes are no longer needed.
+     */
+    public void release( final CompilerResult result )
+    {
+        results.remove( result );
+        close( result );
+    }
+
+    private void close( final CompilerResult result )
+    {
+        if ( leakCheck )
+        {
+            leakTracker.track( result.peekClassLoader(), testName, result.getClasses() );
+        }
+
+        logger.debug( "Releasing: {}, footprint: {}", result.getClasses(), result.getFootprint() );
+        IOUtils.closeQuietly( result );
+    }
+
     @Override
     protected void after()
     {
-        for ( final CompilerResult result : results )
+        synchronized ( watches )
+        {
+            for ( final FixtureWatch watch : watches )
+            {
+                IOUtils.closeQuietly( watch );
+            }
+            watches.clear();
+        }
+
+        final List<CompilerResult> toClose;
+        synchronized ( results )
         {
-            IOUtils.closeQuietly( result );
+            toClose = new ArrayList<>( results );
+            results.clear();
         }
 
+        for ( final CompilerResult result : toClose )
+        {
+            close( result );
+        }
+
+        final List<String> leaks = leakCheck ? leakTracker.check() : Collections.<String> emptyList();
+
         super.after();
+
+        checkBudgets();
+
+        if ( !leaks.isEmpty() )
+        {
+            throw new AssertionError( "Class loaders outlived their test:\n  " + join( leaks, "\n  " ) );
+        }
+    }
+
+    /**
+     * Fail the test if the compiles it made blew a {@link CompileBudget}. Only this test's own compiles count, so a
+     * slow compile in an earlier test can't fail this one.
+     */
+    private void checkBudgets()
+    {
+        final CompileStatistics stats = CompileStatistics.getInstance();
+        final List<String> violations =
+            stats.hasBudgets() ? stats.checkBudgets( testStatistics ) : Collections.<String> emptyList();
+        testStatistics.reset();
+
+        if ( !violations.isEmpty() )
+        {
+            throw new AssertionError( "Compile budget exceeded:\n  " + join( violations, "\n  " ) );
+        }
     }
 
 }
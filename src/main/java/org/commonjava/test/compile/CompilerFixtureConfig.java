@@ -15,6 +15,7 @@
  */
 package org.commonjava.test.compile;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -31,6 +32,28 @@ public class CompilerFixtureConfig
 
     private final List<String> extraOptions = new ArrayList<>();
 
+    private boolean callerClasspathAbi;
+
+    private final List<File> sourceRoots = new ArrayList<>();
+
+    private final List<String> rootClasses = new ArrayList<>();
+
+    private final List<String> excludes = new ArrayList<>();
+
+    private Boolean implicitCompilation;
+
+    private boolean processorProfiling;
+
+    private long processorTimeBudgetMillis;
+
+    private long compileTimeoutMillis;
+
+    private long passTimeoutMillis;
+
+    private boolean analyzeOnly;
+
+    private int partitionThreads = 1;
+
     public CompilerFixtureConfig withAnnotationProcessor( final Class<? extends AbstractProcessor> annotationProcessor )
     {
         annotationProcessors.add( annotationProcessor );
@@ -49,6 +72,135 @@ public class CompilerFixtureConfig
         return this;
     }
 
+    /**
+     * Compile against a header-only (ABI) snapshot of the caller's classpath instead of the full jars. See
+     * {@link ClasspathAbiSnapshot}. Annotation processors are still loaded from the full classpath.
+     */
+    public CompilerFixtureConfig withCallerClasspathAbi()
+    {
+        this.callerClasspathAbi = true;
+        return this;
+    }
+
+    /**
+     * Extra source roots, compiled and searched along with the fixture directory.
+     */
+    public CompilerFixtureConfig withSourceRoots( final File... roots )
+    {
+        this.sourceRoots.addAll( Arrays.asList( roots ) );
+        return this;
+    }
+
+    /**
+     * Compile only these classes and whatever they reference (found through the sourcepath), instead of every source
+     * file under the source roots. Implicit compilation is turned on unless configured otherwise. Cannot be combined
+     * with {@link #withExcludes(String...)}, which only applies to the full source set.
+     */
+    public CompilerFixtureConfig withRootClasses( final String... classNames )
+    {
+        if ( !excludes.isEmpty() )
+        {
+            throw new IllegalArgumentException( "Root classes cannot be combined with excludes: " + excludes );
+        }
+
+        this.rootClasses.addAll( Arrays.asList( classNames ) );
+        return this;
+    }
+
+    /**
+     * Globs, relative to each source root, of files or sub-trees to leave out of the explicit source set. Excluded
+     * sources can still be found through the sourcepath if something references them, so implicit compilation is
+     * turned on (unless configured otherwise) to generate the classes of the ones that are. Turning it off leaves those
+     * classes out, and running code that uses them fails with <code>NoClassDefFoundError</code>. Cannot be combined
+     * with {@link #withRootClasses(String...)}.
+     */
+    public CompilerFixtureConfig withExcludes( final String... globs )
+    {
+        if ( !rootClasses.isEmpty() )
+        {
+            throw new IllegalArgumentException( "Excludes cannot be combined with root classes: " + rootClasses );
+        }
+
+        this.excludes.addAll( Arrays.asList( globs ) );
+        return this;
+    }
+
+    /**
+     * Whether javac should generate classes for sources it finds on the sourcepath but wasn't given explicitly
+     * (<code>-implicit:class</code> vs. <code>-implicit:none</code>). By default this is on only when compiling from
+     * root classes or with excludes.
+     */
+    public CompilerFixtureConfig withImplicitCompilation( final boolean implicit )
+    {
+        this.implicitCompilation = implicit;
+        return this;
+    }
+
+    /**
+     * Record each annotation processor's time in <code>init</code> and <code>process</code>, the elements it
+     * handled and the files it generated, per round. See {@link CompilerResult#getProcessorProfiles()}.
+     */
+    public CompilerFixtureConfig withProcessorProfiling()
+    {
+        this.processorProfiling = true;
+        return this;
+    }
+
+    /**
+     * Fail the compile if any annotation processor spends more than this much time (across all processing passes).
+     * Turns on processor profiling.
+     */
+    public CompilerFixtureConfig withProcessorTimeBudget( final long millis )
+    {
+        this.processorProfiling = true;
+        this.processorTimeBudgetMillis = millis;
+        return this;
+    }
+
+    /**
+     * Give up on a compile (all of its processing passes plus the final compile) after this long, returning a failed
+     * result whose {@link CompilerResult#getTimings() timings} show the phase that was running. Compiles with a
+     * timeout are never batched. The result holds no diagnostics from the timed-out javac invocation, but one that
+     * doesn't stop promptly may still write class or generated source files into the result's directories afterwards.
+     */
+    public CompilerFixtureConfig withCompileTimeout( final long millis )
+    {
+        this.compileTimeoutMillis = millis;
+        return this;
+    }
+
+    /**
+     * Like {@link #withCompileTimeout(long)}, but for each javac invocation (processing pass or final compile).
+     */
+    public CompilerFixtureConfig withPassTimeout( final long millis )
+    {
+        this.passTimeoutMillis = millis;
+        return this;
+    }
+
+    /**
+     * Stop the final compile after attribution and flow analysis, without generating class files. The result still
+     * has diagnostics and a success status, but its classes directory stays empty (apart from anything annotation
+     * processors wrote there), so this is for tests that never load what they compile. Annotation processing passes
+     * run as usual.
+     */
+    public CompilerFixtureConfig withAnalyzeOnly()
+    {
+        this.analyzeOnly = true;
+        return this;
+    }
+
+    /**
+     * Split the fixture's sources into groups that don't reference each other, and compile each group with its own
+     * javac task, up to this many at a time, into the same classes directory. Fixtures that run annotation processors
+     * or compile implicitly (e.g. from root classes) are always compiled by a single task.
+     */
+    public CompilerFixtureConfig withParallelPartitions( final int threads )
+    {
+        this.partitionThreads = threads;
+        return this;
+    }
+
     public int getMaxAnnotationProcessorPasses()
     {
         return maxAnnotationProcessorPasses;
@@ -64,4 +216,129 @@ public class CompilerFixtureConfig
         return extraOptions;
     }
 
+    public boolean isCallerClasspathAbi()
+    {
+        return callerClasspathAbi;
+    }
+
+    public List<File> getSourceRoots()
+    {
+        return sourceRoots;
+    }
+
+    public List<String> getRootClasses()
+    {
+        return rootClasses;
+    }
+
+    public List<String> getExcludes()
+    {
+        return excludes;
+    }
+
+    public Boolean getImplicitCompilation()
+    {
+        return implicitCompilation;
+    }
+
+    public boolean isProcessorProfiling()
+    {
+        return processorProfiling;
+    }
+
+    public long getProcessorTimeBudgetMillis()
+    {
+        return processorTimeBudgetMillis;
+    }
+
+    public long getCompileTimeoutMillis()
+    {
+        return compileTimeoutMillis;
+    }
+
+    public long getPassTimeoutMillis()
+    {
+        return passTimeoutMillis;
+    }
+
+    public boolean isAnalyzeOnly()
+    {
+        return analyzeOnly;
+    }
+
+    public int getPartitionThreads()
+    {
+        return partitionThreads;
+    }
+
+    public boolean hasTimeouts()
+    {
+        return compileTimeoutMillis > 0 || passTimeoutMillis > 0;
+    }
+
+    /**
+     * Short description of the settings that change what (or how) javac compiles, used to tell fixture statistics
+     * apart.
+     */
+    @Override
+    public String toString()
+    {
+        final StringBuilder sb = new StringBuilder();
+        for ( final Class<? extends AbstractProcessor> processor : annotationProcessors )
+        {
+            append( sb, "processor=" + processor.getSimpleName() );
+        }
+        if ( maxAnnotationProcessorPasses > 1 )
+        {
+            append( sb, "passes=" + maxAnnotationProcessorPasses );
+        }
+        if ( !extraOptions.isEmpty() )
+        {
+            append( sb, "options=" + extraOptions );
+        }
+        if ( callerClasspathAbi )
+        {
+            append( sb, "abi" );
+        }
+        if ( !sourceRoots.isEmpty() )
+        {
+            append( sb, "sourceRoots=" + sourceRoots.size() );
+        }
+        if ( !rootClasses.isEmpty() )
+        {
+            append( sb, "rootClasses=" + rootClasses );
+        }
+        if ( !excludes.isEmpty() )
+        {
+            append( sb, "excludes=" + excludes );
+        }
+        if ( implicitCompilation != null )
+        {
+            append( sb, "implicit=" + implicitCompilation );
+        }
+        if ( processorProfiling )
+        {
+            append( sb, "profiling" );
+        }
+        if ( analyzeOnly )
+        {
+            append( sb, "analyzeOnly" );
+        }
+        if ( partitionThreads > 1 )
+        {
+            append( sb, "partitionThreads=" + partitionThreads );
+        }
+
+        return sb.length() == 0 ? "default" : sb.toString();
+    }
+
+    private static void append( final StringBuilder sb, final String setting )
+    {
+        if ( sb.length() > 0 )
+        {
+            sb.append( ", " );
+        }
+        sb.append( setting );
+    }
+
 }
@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ExtensionContext.Namespace;
+import org.junit.jupiter.api.extension.ExtensionContext.Store;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.jupiter.api.extension.ParameterResolutionException;
+import org.junit.jupiter.api.extension.ParameterResolver;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * JUnit Jupiter counterpart of using {@link CompilerFixture} as a rule. Each test gets its own fixture (and temporary
+ * folder), injected as a {@link CompilerFixture} parameter and cleaned up when the test finishes, so test classes
+ * that compile fixtures can run with Jupiter's parallel execution enabled.
+ *
+ * <pre>
+ * &#64;ExtendWith( CompilerFixtureExtension.class )
+ * public class MyTest
+ * {
+ *     &#64;Test
+ *     public void compile( CompilerFixture compiler ) throws Exception
+ *     {
+ *         CompilerResult result = compiler.compileSourceDirWithThisClass( "jdk-only", "org.test.Hello" );
+ *         ...
+ *     }
+ * }
+ * </pre>
+ *
+ * To configure the fixtures, register an instance with <code>&#64;RegisterExtension</code> instead.
+ */
+public class CompilerFixtureExtension
+    implements BeforeEachCallback, AfterEachCallback, ParameterResolver
+{
+
+    private static final Namespace NAMESPACE = Namespace.create( CompilerFixtureExtension.class );
+
+    private ResultRetention retention = ResultRetention.STRONG;
+
+    private CompileBatchScheduler batchScheduler;
+
+    private boolean leakCheck;
+
+    public CompilerFixtureExtension withResultRetention( final ResultRetention retention )
+    {
+        this.retention = retention;
+        return this;
+    }
+
+    public CompilerFixtureExtension withBatchScheduler( final CompileBatchScheduler scheduler )
+    {
+        this.batchScheduler = scheduler;
+        return this;
+    }
+
+    public CompilerFixtureExtension withClassLoaderLeakCheck()
+    {
+        this.leakCheck = true;
+        return this;
+    }
+
+    @Override
+    public void beforeEach( final ExtensionContext context )
+        throws Exception
+    {
+        getFixture( context );
+    }
+
+    @Override
+    public void afterEach( final ExtensionContext context )
+        throws Exception
+    {
+        final Store store = context.getStore( NAMESPACE );
+        final CompilerFixture fixture = store.remove( CompilerFixture.class, CompilerFixture.class );
+        final TemporaryFolder temp = store.remove( TemporaryFolder.class, TemporaryFolder.class );
+
+        try
+        {
+            if ( fixture != null )
+            {
+                fixture.after();
+            }
+        }
+        finally
+        {
+            if ( temp != null )
+            {
+                temp.delete();
+            }
+        }
+    }
+
+    @Override
+    public boolean supportsParameter( final ParameterContext parameterContext,
+                                      final ExtensionContext extensionContext )
+        throws ParameterResolutionException
+    {
+        return parameterContext.getParameter()
+                               .getType() == CompilerFixture.class;
+    }
+
+    @Override
+    public Object resolveParameter( final ParameterContext parameterContext, final ExtensionContext extensionContext )
+        throws ParameterResolutionException
+    {
+        try
+        {
+            return getFixture( extensionContext );
+        }
+        catch ( final IOException e )
+        {
+            throw new ParameterResolutionException( "Cannot create compiler fixture: " + e.getMessage(), e );
+        }
+    }
+
+    private CompilerFixture getFixture( final ExtensionContext context )
+        throws IOException
+    {
+        final Store store = context.getStore( NAMESPACE );
+        CompilerFixture fixture = store.get( CompilerFixture.class, CompilerFixture.class );
+        if ( fixture == null )
+        {
+            final TemporaryFolder temp = new TemporaryFolder();
+            temp.create();
+            store.put( TemporaryFolder.class, temp );
+
+            fixture = new CompilerFixture( temp ).withResultRetention( retention )
+                                                 .withBatchScheduler( batchScheduler );
+            if ( leakCheck )
+            {
+                fixture.withClassLoaderLeakCheck();
+            }
+            fixture.setTestName( context.getDisplayName() );
+
+            store.put( CompilerFixture.class, fixture );
+        }
+
+        return fixture;
+    }
+
+}
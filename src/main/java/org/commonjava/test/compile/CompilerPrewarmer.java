@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Gets javac loaded, linked and (partly) JIT-compiled before the first real compile, by compiling a tiny synthetic
+ * unit entirely in memory. Call {@link #prewarm()} early, or set the {@value #PREWARM_PROPERTY} system property to
+ * <code>true</code> to have {@link CompilerFixture} start it on a background thread when its class is initialized.
+ * <p>
+ * The {@link #main(String[])} method does the same work in the foreground; the <code>appcds</code> profile in this
+ * module's POM runs it to record the compiler's classes into a class-data sharing archive for surefire forks.
+ */
+public final class CompilerPrewarmer
+{
+
+    public static final String PREWARM_PROPERTY = "compiler.fixture.prewarm";
+
+    private static final int MAIN_ITERATIONS = 3;
+
+    private static final String SOURCE = "package prewarm;\n" //
+        + "import java.util.*;\n" //
+        + "public class Warm<T extends Comparable<T>> implements Iterable<T> {\n" //
+        + "    private final List<T> items = new ArrayList<>();\n" //
+        + "    public Warm<T> add( T item ) { items.add( item ); Collections.sort( items ); return this; }\n" //
+        + "    @Override public Iterator<T> iterator() { return items.iterator(); }\n" //
+        + "    public static void main( String[] args ) {\n" //
+        + "        for ( String s : new Warm<String>().add( \"b\" ).add( \"a\" ) ) { System.out.println( s ); }\n" //
+        + "    }\n" //
+        + "}\n";
+
+    private static final CountDownLatch warm = new CountDownLatch( 1 );
+
+    private static boolean started;
+
+    private CompilerPrewarmer()
+    {
+    }
+
+    /**
+     * Start warming javac up on a daemon thread. Only the first call has any effect.
+     */
+    public static synchronized void prewarm()
+    {
+        if ( started )
+        {
+            return;
+        }
+        started = true;
+
+        final Thread thread = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    compileSynthetic();
+                }
+                finally
+                {
+                    warm.countDown();
+                }
+            }
+        }, "compiler-fixture-prewarm" );
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    /**
+     * Wait for a prewarm started by {@link #prewarm()} to finish.
+     *
+     * @return false if the wait timed out or no prewarm was started
+     */
+    public static boolean awaitPrewarm( final long timeout, final TimeUnit unit )
+        throws InterruptedException
+    {
+        synchronized ( CompilerPrewarmer.class )
+        {
+            if ( !started )
+            {
+                return false;
+            }
+        }
+
+        return warm.await( timeout, unit );
+    }
+
+    public static void main( final String[] args )
+    {
+        for ( int i = 0; i < MAIN_ITERATIONS; i++ )
+        {
+            compileSynthetic();
+        }
+    }
+
+    static void compileSynthetic()
+    {
+        final Logger logger = LoggerFactory.getLogger( CompilerPrewarmer.class );
+        final long start = System.nanoTime();
+
+        final JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        final StandardJavaFileManager fileManager = javac.getStandardFileManager( null, null, null );
+        try
+        {
+            final JavaFileObject source =
+                new SimpleJavaFileObject( URI.create( "string:///prewarm/Warm.java" ), Kind.SOURCE )
+                {
+                    @Override
+                    public CharSequence getCharContent( final boolean ignoreEncodingErrors )
+                    {
+                        return SOURCE;
+                    }
+                };
+
+            final JavaFileManager inMemory = new ForwardingJavaFileManager<JavaFileManager>( fileManager )
+            {
+                @Override
+                public JavaFileObject getJavaFileForOutput( final Location location, final String className,
+                                                            final Kind kind, final FileObject sibling )
+                {
+                    return new SimpleJavaFileObject( URI.create( "mem:///" + className.replace( '.', '/' )
+                        + kind.extension ), kind )
+                    {
+                        @Override
+                        public OutputStream openOutputStream()
+                        {
+                            return new ByteArrayOutputStream();
+                        }
+                    };
+                }
+            };
+
+            final DiagnosticCollector<JavaFileObject> diags = new DiagnosticCollector<>();
+            final Boolean result =
+                javac.getTask( null, inMemory, diags, Arrays.asList( "-g", "-proc:none" ), null,
+                               Collections.singleton( source ) )
+                     .call();
+
+            logger.debug( "javac prewarm finished in {} ms (result: {}, diagnostics: {})",
+                          TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ), result,
+                          diags.getDiagnostics() );
+        }
+        catch ( final RuntimeException e )
+        {
+            logger.warn( "javac prewarm failed: " + e.getMessage(), e );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( fileManager );
+        }
+    }
+
+}
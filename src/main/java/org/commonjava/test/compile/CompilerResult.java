@@ -21,7 +21,13 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.tools.Diagnostic;
 import javax.tools.DiagnosticCollector;
 import javax.tools.JavaFileObject;
 
@@ -32,19 +38,50 @@ public class CompilerResult
 
     private final File generatedSources;
 
-    private final DiagnosticCollector<? extends JavaFileObject> diagnostics;
+    private DiagnosticCollector<? extends JavaFileObject> diagnostics;
 
     private final Boolean result;
 
-    private URLClassLoader classloader;
+    private final List<ProcessorProfile> processorProfiles;
+
+    private final List<CompilerResult> upstream;
+
+    private final CompileTimings timings;
+
+    private final CompileMemory memory;
+
+    private FixtureRunner runner;
+
+    private DiagnosticIndex diagnosticIndex;
+
+    private CountingClassLoader classloader;
+
+    private long metaspaceAtLoad;
+
+    private long heapAtLoad;
+
+    private ResultFootprint closedFootprint;
 
     public CompilerResult( final File classes, final File generatedSources,
                            final DiagnosticCollector<? extends JavaFileObject> diagnostics, final Boolean result )
+    {
+        this( classes, generatedSources, diagnostics, result, Collections.<ProcessorProfile> emptyList(),
+              Collections.<CompilerResult> emptyList(), null, null );
+    }
+
+    CompilerResult( final File classes, final File generatedSources,
+                    final DiagnosticCollector<? extends JavaFileObject> diagnostics, final Boolean result,
+                    final List<ProcessorProfile> processorProfiles, final List<CompilerResult> upstream,
+                    final CompileTimings timings, final CompileMemory memory )
     {
         this.classes = classes;
         this.generatedSources = generatedSources;
         this.diagnostics = diagnostics;
         this.result = result;
+        this.processorProfiles = Collections.unmodifiableList( processorProfiles );
+        this.upstream = Collections.unmodifiableList( upstream );
+        this.timings = timings;
+        this.memory = memory;
     }
 
     public File getClasses()
@@ -57,26 +94,161 @@ public class CompilerResult
         return generatedSources;
     }
 
-    public DiagnosticCollector<? extends JavaFileObject> getDiagnostics()
+    /**
+     * The compiler's diagnostics, as collected. Dropped when the result is released (see {@link #close()}); use
+     * {@link #getDiagnosticIndex()} after that.
+     */
+    public synchronized DiagnosticCollector<? extends JavaFileObject> getDiagnostics()
     {
+        if ( closedFootprint != null )
+        {
+            throw new IllegalStateException( "Diagnostics of: " + classes
+                + " were released with the result. Use getDiagnosticIndex()." );
+        }
+
         return diagnostics;
     }
 
+    /**
+     * Diagnostics grouped by kind, source, line and message code. Built on first use, and kept when the result is
+     * released.
+     */
+    public synchronized DiagnosticIndex getDiagnosticIndex()
+    {
+        if ( diagnosticIndex == null )
+        {
+            diagnosticIndex =
+                new DiagnosticIndex( diagnostics == null ? Collections.<Diagnostic<JavaFileObject>> emptyList()
+                                : diagnostics.getDiagnostics() );
+        }
+
+        return diagnosticIndex;
+    }
+
     public Boolean getResult()
     {
         return result;
     }
 
-    public URLClassLoader getClassLoader()
+    /**
+     * One profile per configured annotation processor, if processor profiling was enabled; otherwise empty.
+     */
+    public List<ProcessorProfile> getProcessorProfiles()
+    {
+        return processorProfiles;
+    }
+
+    public synchronized URLClassLoader getClassLoader()
+        throws MalformedURLException
+    {
+        if ( closedFootprint != null )
+        {
+            throw new IllegalStateException( "Result for: " + classes + " has already been released." );
+        }
+
+        if ( classloader == null )
+        {
+            metaspaceAtLoad = ResultFootprint.metaspaceUsed();
+            heapAtLoad = ResultFootprint.heapUsed();
+            classloader = new CountingClassLoader( classes, getParentClassLoader() );
+        }
+
+        return classloader;
+    }
+
+    /**
+     * How long the compile took, by javac phase, and whether it timed out.
+     */
+    public CompileTimings getTimings()
+    {
+        return timings;
+    }
+
+    /**
+     * Runner for this result's <code>main</code> methods, with cached entry points and per-invocation output capture.
+     * Uses this result's class loader, so it stops working once the result is closed.
+     */
+    public synchronized FixtureRunner getRunner()
+    {
+        if ( runner == null )
+        {
+            runner = new FixtureRunner( this );
+        }
+
+        return runner;
+    }
+
+    /**
+     * Bytes allocated, GC activity and metaspace growth during the compile.
+     */
+    public CompileMemory getMemory()
+    {
+        return memory;
+    }
+
+    /**
+     * Whether the compile was abandoned because it ran past its configured timeout.
+     */
+    public boolean isTimedOut()
+    {
+        return timings != null && timings.isTimedOut();
+    }
+
+    /**
+     * Results of the fixtures this one was compiled against (see {@link FixtureGraph}), if any.
+     */
+    public List<CompilerResult> getUpstream()
+    {
+        return upstream;
+    }
+
+    private ClassLoader getParentClassLoader()
         throws MalformedURLException
     {
+        final ClassLoader context = Thread.currentThread()
+                                          .getContextClassLoader();
+        if ( upstream.isEmpty() )
+        {
+            return context;
+        }
+        else if ( upstream.size() == 1 )
+        {
+            return upstream.get( 0 )
+                           .getClassLoader();
+        }
+
+        final List<ClassLoader> parents = new ArrayList<>( upstream.size() );
+        for ( final CompilerResult cr : upstream )
+        {
+            parents.add( cr.getClassLoader() );
+        }
+
+        return new UpstreamClassLoader( parents, context );
+    }
+
+    /**
+     * Classes defined by this result's class loader, plus (approximate) metaspace and heap growth since it was
+     * created. After {@link #close()} this is frozen at the values seen when the result was released.
+     */
+    public synchronized ResultFootprint getFootprint()
+    {
+        if ( closedFootprint != null )
+        {
+            return closedFootprint;
+        }
+
         if ( classloader == null )
         {
-            classloader = new URLClassLoader( new URL[] { classes.toURI()
-                                                                 .toURL() }, Thread.currentThread()
-                                                                                   .getContextClassLoader() );
+            return new ResultFootprint( 0, 0, 0, 0 );
         }
 
+        return new ResultFootprint( classloader.definedClasses.get(), classloader.definedBytes.get(),
+                                    ResultFootprint.metaspaceUsed() - metaspaceAtLoad, ResultFootprint.heapUsed()
+                                        - heapAtLoad );
+    }
+
+    synchronized ClassLoader peekClassLoader()
+    {
         return classloader;
     }
 
@@ -98,13 +270,107 @@ public class CompilerResult
                                                .getContextClassLoader() );
     }
 
+    /**
+     * Release the class loader and the compiler's diagnostics, which pin javac's file objects. The diagnostics stay
+     * available in compact form through {@link #getDiagnosticIndex()}.
+     */
     @Override
-    public void close()
+    public synchronized void close()
         throws IOException
     {
+        if ( closedFootprint != null )
+        {
+            return;
+        }
+
+        getDiagnosticIndex();
+        diagnostics = null;
+
+        closedFootprint = getFootprint();
         if ( classloader != null )
         {
             classloader.close();
+            classloader = null;
+        }
+    }
+
+    /**
+     * Delegates to the class loaders of several upstream results (after the usual parent), so each upstream class is
+     * defined once, by its own fixture's loader.
+     */
+    private static final class UpstreamClassLoader
+        extends ClassLoader
+    {
+        private final List<ClassLoader> upstream;
+
+        UpstreamClassLoader( final List<ClassLoader> upstream, final ClassLoader parent )
+        {
+            super( parent );
+            this.upstream = upstream;
+        }
+
+        @Override
+        protected Class<?> findClass( final String name )
+            throws ClassNotFoundException
+        {
+            for ( final ClassLoader loader : upstream )
+            {
+                try
+                {
+                    return loader.loadClass( name );
+                }
+                catch ( final ClassNotFoundException e )
+                {
+                    // try the next one.
+                }
+            }
+
+            throw new ClassNotFoundException( name );
+        }
+
+        @Override
+        protected URL findResource( final String name )
+        {
+            for ( final ClassLoader loader : upstream )
+            {
+                final URL url = loader.getResource( name );
+                if ( url != null )
+                {
+                    return url;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    private static final class CountingClassLoader
+        extends URLClassLoader
+    {
+        private final File classes;
+
+        private final AtomicInteger definedClasses = new AtomicInteger();
+
+        private final AtomicLong definedBytes = new AtomicLong();
+
+        CountingClassLoader( final File classes, final ClassLoader parent )
+            throws MalformedURLException
+        {
+            super( new URL[] { classes.toURI()
+                                      .toURL() }, parent );
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass( final String name )
+            throws ClassNotFoundException
+        {
+            final Class<?> cls = super.findClass( name );
+
+            definedClasses.incrementAndGet();
+            definedBytes.addAndGet( new File( classes, name.replace( '.', '/' ) + ".class" ).length() );
+
+            return cls;
         }
     }
 
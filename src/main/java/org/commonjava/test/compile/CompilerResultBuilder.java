@@ -16,6 +16,8 @@
 package org.commonjava.test.compile;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.List;
 
 import javax.tools.DiagnosticCollector;
 import javax.tools.JavaFileObject;
@@ -31,6 +33,14 @@ final class CompilerResultBuilder
 
     private Boolean result;
 
+    private List<ProcessorProfile> processorProfiles = Collections.emptyList();
+
+    private List<CompilerResult> upstream = Collections.emptyList();
+
+    private CompileTimings timings;
+
+    private CompileMemory memory;
+
     CompilerResultBuilder withClasses( final File classes )
     {
         this.classes = classes;
@@ -55,13 +65,38 @@ final class CompilerResultBuilder
         return this;
     }
 
+    CompilerResultBuilder withProcessorProfiles( final List<ProcessorProfile> profiles )
+    {
+        this.processorProfiles = profiles;
+        return this;
+    }
+
+    CompilerResultBuilder withUpstream( final List<CompilerResult> upstream )
+    {
+        this.upstream = upstream;
+        return this;
+    }
+
+    CompilerResultBuilder withTimings( final CompileTimings timings )
+    {
+        this.timings = timings;
+        return this;
+    }
+
+    CompilerResultBuilder withMemory( final CompileMemory memory )
+    {
+        this.memory = memory;
+        return this;
+    }
+
     CompilerResult build()
     {
         if ( result == null || classes == null || !classes.isDirectory() )
         {
             throw new IllegalStateException( "result or classes directory is missing!" );
         }
-        return new CompilerResult( classes, generatedSources, diagnostics, result );
+        return new CompilerResult( classes, generatedSources, diagnostics, result, processorProfiles, upstream,
+                                   timings, memory );
     }
 
 }
@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.tools.Diagnostic;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.JavaFileObject;
+
+/**
+ * Diagnostics of a compile, grouped by kind, source file, line and compiler message code so assertions in negative
+ * tests don't have to scan (and string-match) the whole diagnostic list. Entries are compact copies, with source names
+ * and messages shared between repeats, and don't reference javac's file objects. A {@link CompilerResult} keeps its
+ * full diagnostic collector next to the index until it is released, so the index only saves memory from then on.
+ */
+public final class DiagnosticIndex
+{
+
+    private final List<IndexedDiagnostic> all;
+
+    private final Map<Kind, List<IndexedDiagnostic>> byKind = new EnumMap<>( Kind.class );
+
+    private final Map<String, List<IndexedDiagnostic>> bySource = new HashMap<>();
+
+    private final Map<String, Map<Long, List<IndexedDiagnostic>>> byLine = new HashMap<>();
+
+    private final Map<String, List<IndexedDiagnostic>> byCode = new HashMap<>();
+
+    // trailing parts of the source names (after each '/'), built on the first lookup by partial name.
+    private Map<String, String> bySuffix;
+
+    public DiagnosticIndex( final List<? extends Diagnostic<? extends JavaFileObject>> diagnostics )
+    {
+        final Map<String, String> interned = new HashMap<>();
+        final List<IndexedDiagnostic> entries = new ArrayList<>( diagnostics.size() );
+
+        for ( final Diagnostic<? extends JavaFileObject> diag : diagnostics )
+        {
+            final JavaFileObject jfo = diag.getSource();
+            final String source = jfo == null ? null : intern( jfo.getName(), interned );
+
+            final IndexedDiagnostic entry =
+                new IndexedDiagnostic( diag.getKind(), source, diag.getLineNumber(), diag.getColumnNumber(),
+                                       intern( diag.getCode(), interned ), intern( diag.getMessage( Locale.ROOT ),
+                                                                                   interned ) );
+            entries.add( entry );
+
+            add( byKind, entry.getKind(), entry );
+            add( byCode, entry.getCode(), entry );
+            if ( source != null )
+            {
+                add( bySource, source, entry );
+
+                Map<Long, List<IndexedDiagnostic>> lines = byLine.get( source );
+                if ( lines == null )
+                {
+                    lines = new HashMap<>();
+                    byLine.put( source, lines );
+                }
+                add( lines, entry.getLine(), entry );
+            }
+        }
+
+        this.all = Collections.unmodifiableList( entries );
+    }
+
+    public List<IndexedDiagnostic> getAll()
+    {
+        return all;
+    }
+
+    public List<IndexedDiagnostic> get( final Kind kind )
+    {
+        return get( byKind, kind );
+    }
+
+    public int count( final Kind kind )
+    {
+        return get( kind ).size();
+    }
+
+    public boolean hasErrors()
+    {
+        return count( Kind.ERROR ) > 0;
+    }
+
+    public List<IndexedDiagnostic> getByCode( final String code )
+    {
+        return get( byCode, code );
+    }
+
+    public int countByCode( final String code )
+    {
+        return getByCode( code ).size();
+    }
+
+    public Set<String> getSources()
+    {
+        return Collections.unmodifiableSet( bySource.keySet() );
+    }
+
+    /**
+     * Diagnostics for the given source file. The name can be the full name reported by the compiler or a trailing
+     * part of it, e.g. <code>org/test/Hello.java</code>.
+     */
+    public List<IndexedDiagnostic> getBySource( final String source )
+    {
+        final String key = resolveSource( source );
+        return key == null ? Collections.<IndexedDiagnostic> emptyList() : get( bySource, key );
+    }
+
+    public List<IndexedDiagnostic> getAt( final String source, final long line )
+    {
+        final String key = resolveSource( source );
+        if ( key == null )
+        {
+            return Collections.emptyList();
+        }
+
+        return get( byLine.get( key ), line );
+    }
+
+    private synchronized String resolveSource( final String source )
+    {
+        if ( bySource.containsKey( source ) )
+        {
+            return source;
+        }
+
+        if ( bySuffix == null )
+        {
+            bySuffix = new HashMap<>();
+            for ( final String key : bySource.keySet() )
+            {
+                final String k = key.replace( '\\', '/' );
+                for ( int i = k.indexOf( '/' ); i >= 0; i = k.indexOf( '/', i + 1 ) )
+                {
+                    final String suffix = k.substring( i + 1 );
+                    if ( !bySuffix.containsKey( suffix ) )
+                    {
+                        bySuffix.put( suffix, key );
+                    }
+                }
+            }
+        }
+
+        return bySuffix.get( source.replace( '\\', '/' ) );
+    }
+
+    private static String intern( final String value, final Map<String, String> interned )
+    {
+        if ( value == null )
+        {
+            return null;
+        }
+
+        final String existing = interned.get( value );
+        if ( existing != null )
+        {
+            return existing;
+        }
+
+        interned.put( value, value );
+        return value;
+    }
+
+    private static <K> void add( final Map<K, List<IndexedDiagnostic>> map, final K key, final IndexedDiagnostic entry )
+    {
+        List<IndexedDiagnostic> list = map.get( key );
+        if ( list == null )
+        {
+            list = new ArrayList<>( 2 );
+            map.put( key, list );
+        }
+
+        list.add( entry );
+    }
+
+    private static <K> List<IndexedDiagnostic> get( final Map<K, List<IndexedDiagnostic>> map, final K key )
+    {
+        final List<IndexedDiagnostic> list = map == null ? null : map.get( key );
+        return list == null ? Collections.<IndexedDiagnostic> emptyList() : Collections.unmodifiableList( list );
+    }
+
+}
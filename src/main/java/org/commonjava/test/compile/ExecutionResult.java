@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of running a compiled fixture's <code>main</code> method through a {@link FixtureRunner}: what it wrote to
+ * <code>System.out</code> and <code>System.err</code>, what it threw (if anything), and how long it took.
+ */
+public final class ExecutionResult
+{
+
+    private final String className;
+
+    private final List<String> args;
+
+    private final String stdout;
+
+    private final String stderr;
+
+    private final Throwable error;
+
+    private final long nanos;
+
+    ExecutionResult( final String className, final String[] args, final String stdout, final String stderr,
+                     final Throwable error, final long nanos )
+    {
+        this.className = className;
+        this.args = args == null ? Collections.<String> emptyList()
+                        : Collections.unmodifiableList( Arrays.asList( args.clone() ) );
+        this.stdout = stdout;
+        this.stderr = stderr;
+        this.error = error;
+        this.nanos = nanos;
+    }
+
+    public String getClassName()
+    {
+        return className;
+    }
+
+    public List<String> getArgs()
+    {
+        return args;
+    }
+
+    public String getStdout()
+    {
+        return stdout;
+    }
+
+    public String getStderr()
+    {
+        return stderr;
+    }
+
+    /**
+     * What <code>main</code> threw, or null if it returned normally.
+     */
+    public Throwable getError()
+    {
+        return error;
+    }
+
+    public boolean isSuccess()
+    {
+        return error == null;
+    }
+
+    /**
+     * Time spent in <code>main</code>, excluding class loading and method lookup on first use.
+     */
+    public long getNanos()
+    {
+        return nanos;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "%s %s: %s in %.3f ms", className, args, error == null ? "OK" : error,
+                              nanos / 1000000.0 );
+    }
+
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Fixture directories and the dependencies between them, for {@link CompilerFixture#compile(FixtureGraph)}. Each
+ * fixture is compiled against the class output of the fixtures it depends on (directly or not), and its class loader
+ * delegates to theirs, so the loaders mirror the graph.
+ *
+ * <pre>
+ * FixtureGraph graph = new FixtureGraph().withFixture( "lib", libDir )
+ *                                        .withFixture( "app", appDir )
+ *                                        .withDependency( "app", "lib" );
+ * </pre>
+ */
+public final class FixtureGraph
+{
+
+    private final Map<String, File> directories = new LinkedHashMap<>();
+
+    private final Map<String, CompilerFixtureConfig> configs = new LinkedHashMap<>();
+
+    private final Map<String, Set<String>> dependencies = new LinkedHashMap<>();
+
+    public FixtureGraph withFixture( final String name, final File directory )
+    {
+        return withFixture( name, directory, new CompilerFixtureConfig() );
+    }
+
+    public FixtureGraph withFixture( final String name, final File directory, final CompilerFixtureConfig config )
+    {
+        if ( directories.containsKey( name ) )
+        {
+            throw new IllegalArgumentException( "Duplicate fixture: " + name );
+        }
+
+        directories.put( name, directory );
+        configs.put( name, config );
+        dependencies.put( name, new LinkedHashSet<String>() );
+        return this;
+    }
+
+    /**
+     * Declare that the fixture named <code>from</code> compiles against the one named <code>to</code>.
+     */
+    public FixtureGraph withDependency( final String from, final String to )
+    {
+        if ( !directories.containsKey( from ) || !directories.containsKey( to ) )
+        {
+            throw new IllegalArgumentException( "Unknown fixture in dependency: " + from + " -> " + to );
+        }
+
+        dependencies.get( from )
+                    .add( to );
+        return this;
+    }
+
+    public Set<String> getFixtureNames()
+    {
+        return Collections.unmodifiableSet( directories.keySet() );
+    }
+
+    public File getDirectory( final String name )
+    {
+        return directories.get( name );
+    }
+
+    public CompilerFixtureConfig getConfig( final String name )
+    {
+        return configs.get( name );
+    }
+
+    public Set<String> getDependencies( final String name )
+    {
+        return Collections.unmodifiableSet( dependencies.get( name ) );
+    }
+
+    /**
+     * Fixture names, each after all of its dependencies.
+     *
+     * @throws IllegalStateException if the dependencies form a cycle
+     */
+    List<String> sort()
+    {
+        final List<String> sorted = new ArrayList<>( directories.size() );
+        final Set<String> visiting = new LinkedHashSet<>();
+        final Set<String> done = new LinkedHashSet<>();
+        for ( final String name : directories.keySet() )
+        {
+            visit( name, visiting, done, sorted );
+        }
+
+        return sorted;
+    }
+
+    private void visit( final String name, final Set<String> visiting, final Set<String> done,
+                        final List<String> sorted )
+    {
+        if ( done.contains( name ) )
+        {
+            return;
+        }
+
+        if ( !visiting.add( name ) )
+        {
+            throw new IllegalStateException( "Fixture dependency cycle: " + visiting + " -> " + name );
+        }
+
+        for ( final String dep : dependencies.get( name ) )
+        {
+            visit( dep, visiting, done, sorted );
+        }
+
+        visiting.remove( name );
+        done.add( name );
+        sorted.add( name );
+    }
+
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the <code>main</code> methods of a {@link CompilerResult}'s classes. Each entry point is looked up once and
+ * cached as a {@link MethodHandle}, and each invocation gets its own captured stdout and stderr (see
+ * {@link ExecutionResult}), so invocations can run concurrently, e.g. on an executor via
+ * {@link #runAll(ExecutorService, String, List)}.
+ * <p>
+ * Output is captured per thread, including threads the invoked code starts, until the invocation returns. Limits:
+ * <ul>
+ * <li>The first invocation replaces <code>System.out</code> and <code>System.err</code> JVM-wide with routing streams,
+ * which stay in place; output from threads that aren't capturing passes straight through them. Code that later
+ * replaces the streams itself takes them out of the routing, and what it writes isn't captured.</li>
+ * <li>Output from threads that already existed (e.g. pooled threads the code hands work to), from code that kept a
+ * reference to the original streams (e.g. a logging appender), or from threads still running after the invocation
+ * returned goes to the real streams.</li>
+ * </ul>
+ */
+public final class FixtureRunner
+{
+
+    private static final MethodType MAIN = MethodType.methodType( void.class, String[].class );
+
+    private final CompilerResult result;
+
+    private final ConcurrentMap<String, MethodHandle> entryPoints = new ConcurrentHashMap<>();
+
+    FixtureRunner( final CompilerResult result )
+    {
+        this.result = result;
+    }
+
+    /**
+     * Run <code>className.main( args )</code> on the current thread.
+     */
+    public ExecutionResult run( final String className, final String... args )
+        throws IOException, ReflectiveOperationException
+    {
+        final MethodHandle main = getEntryPoint( className );
+
+        final Thread thread = Thread.currentThread();
+        final ClassLoader ccl = thread.getContextClassLoader();
+        thread.setContextClassLoader( result.getClassLoader() );
+
+        final OutputCapture capture = OutputCapture.start();
+        Throwable error = null;
+        final long start = System.nanoTime();
+        try
+        {
+            main.invokeExact( args );
+        }
+        catch ( final Throwable t )
+        {
+            error = t;
+        }
+        finally
+        {
+            capture.stop();
+            thread.setContextClassLoader( ccl );
+        }
+
+        final long nanos = System.nanoTime() - start;
+        return new ExecutionResult( className, args, capture.getStdout(), capture.getStderr(), error, nanos );
+    }
+
+    /**
+     * Run <code>className.main( args )</code> on the executor.
+     */
+    public Future<ExecutionResult> submit( final ExecutorService executor, final String className,
+                                           final String... args )
+    {
+        return executor.submit( new Callable<ExecutionResult>()
+        {
+            @Override
+            public ExecutionResult call()
+                throws Exception
+            {
+                return run( className, args );
+            }
+        } );
+    }
+
+    /**
+     * Run <code>className.main</code> once per argument list, concurrently on the executor, and wait for all of them.
+     * Results are in the order of the argument lists.
+     */
+    public List<ExecutionResult> runAll( final ExecutorService executor, final String className,
+                                         final List<String[]> argLists )
+        throws IOException
+    {
+        final List<Future<ExecutionResult>> futures = new ArrayList<>( argLists.size() );
+        for ( final String[] args : argLists )
+        {
+            futures.add( submit( executor, className, args ) );
+        }
+
+        final List<ExecutionResult> results = new ArrayList<>( futures.size() );
+        try
+        {
+            for ( final Future<ExecutionResult> future : futures )
+            {
+                results.add( future.get() );
+            }
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread()
+                  .interrupt();
+            throw new IOException( "Interrupted while running: " + className, e );
+        }
+        catch ( final ExecutionException e )
+        {
+            final Throwable cause = e.getCause();
+            if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+
+            throw new IOException( "Cannot run: " + className + ": " + cause.getMessage(), cause );
+        }
+        finally
+        {
+            for ( final Future<ExecutionResult> future : futures )
+            {
+                future.cancel( true );
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Resolve (once) the public static <code>main( String[] )</code> of the named class.
+     */
+    public MethodHandle getEntryPoint( final String className )
+        throws IOException, ReflectiveOperationException
+    {
+        MethodHandle main = entryPoints.get( className );
+        if ( main == null )
+        {
+            final Class<?> cls = result.getClassLoader()
+                                       .loadClass( className );
+            main = MethodHandles.publicLookup()
+                                .findStatic( cls, "main", MAIN );
+
+            final MethodHandle existing = entryPoints.putIfAbsent( className, main );
+            if ( existing != null )
+            {
+                main = existing;
+            }
+        }
+
+        return main;
+    }
+
+}
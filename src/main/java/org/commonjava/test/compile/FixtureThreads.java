@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Daemon threads for the fixture's background work, so a forgotten executor can never keep a test JVM alive.
+ */
+final class FixtureThreads
+    implements ThreadFactory
+{
+
+    private final String prefix;
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    FixtureThreads( final String prefix )
+    {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread( final Runnable r )
+    {
+        final Thread t = new Thread( r, prefix + "-" + count.incrementAndGet() );
+        t.setDaemon( true );
+        return t;
+    }
+
+}
@@ -0,0 +1,314 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.apache.commons.io.IOUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Recompiles a fixture directory on a background thread whenever files under it change, and publishes each new
+ * {@link CompilerResult} to its listeners. Bursts of changes (an editor saving several files, a VCS checkout) are
+ * debounced into a single rebuild.
+ * <p>
+ * Each rebuild is a full compile of the fixture in the same (warm) JVM and compiler, through one file manager that the
+ * watch keeps open until it is closed. The previous result is released once its replacement has been published, so
+ * hold on to a result only until the next one arrives.
+ */
+public final class FixtureWatch
+    implements Closeable
+{
+
+    static final long CLOSE_TIMEOUT_MILLIS = 30000;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final CompilerFixture fixture;
+
+    private final File directory;
+
+    private final CompilerFixtureConfig config;
+
+    private final long debounceMillis;
+
+    private final WatchService watcher;
+
+    private final StandardJavaFileManager fileManager;
+
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+
+    private final List<CompilerResultListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final Thread thread;
+
+    private volatile CompilerResult latest;
+
+    private volatile boolean closed;
+
+    FixtureWatch( final CompilerFixture fixture, final File directory, final CompilerFixtureConfig config,
+                  final long debounceMillis )
+        throws IOException
+    {
+        this.fixture = fixture;
+        this.directory = directory;
+        this.config = config;
+        this.debounceMillis = debounceMillis;
+        this.watcher = FileSystems.getDefault()
+                                  .newWatchService();
+        this.fileManager = ToolProvider.getSystemJavaCompiler()
+                                       .getStandardFileManager( null, null, null );
+
+        try
+        {
+            registerAll( directory.toPath() );
+
+            latest = compile();
+        }
+        catch ( final IOException | RuntimeException e )
+        {
+            IOUtils.closeQuietly( fileManager );
+            watcher.close();
+            throw e;
+        }
+
+        thread = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                watch();
+            }
+        }, "compiler-fixture-watch-" + directory.getName() );
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    public FixtureWatch subscribe( final CompilerResultListener listener )
+    {
+        listeners.add( listener );
+        return this;
+    }
+
+    public void unsubscribe( final CompilerResultListener listener )
+    {
+        listeners.remove( listener );
+    }
+
+    /**
+     * The result of the most recent compile, including the one made when the watch started.
+     */
+    public CompilerResult getLatest()
+    {
+        return latest;
+    }
+
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Stop watching, and wait (up to {@value #CLOSE_TIMEOUT_MILLIS}ms) for a rebuild in progress to finish, so it can't
+     * publish results after the fixture has cleaned up. The watch's file manager is closed once the thread has stopped.
+     */
+    @Override
+    public void close()
+        throws IOException
+    {
+        closed = true;
+        watcher.close();
+        thread.interrupt();
+
+        if ( Thread.currentThread() == thread )
+        {
+            // a listener closed us mid-rebuild; the thread closes the file manager on its way out.
+            return;
+        }
+
+        try
+        {
+            thread.join( CLOSE_TIMEOUT_MILLIS );
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread()
+                  .interrupt();
+        }
+
+        if ( thread.isAlive() )
+        {
+            // leave the file manager to the rebuild still using it; the thread closes it when it exits.
+            logger.warn( "Watch thread for: {} did not stop within {}ms.", directory, CLOSE_TIMEOUT_MILLIS );
+            return;
+        }
+
+        IOUtils.closeQuietly( fileManager );
+    }
+
+    boolean isRunning()
+    {
+        return thread.isAlive();
+    }
+
+    private void watch()
+    {
+        try
+        {
+            while ( !closed )
+            {
+                drain( watcher.take() );
+
+                WatchKey key;
+                while ( ( key = watcher.poll( debounceMillis, TimeUnit.MILLISECONDS ) ) != null )
+                {
+                    drain( key );
+                }
+
+                if ( !closed )
+                {
+                    rebuild();
+                }
+            }
+        }
+        catch ( final InterruptedException | ClosedWatchServiceException e )
+        {
+            logger.debug( "Stopped watching: {}", directory );
+        }
+        finally
+        {
+            if ( closed )
+            {
+                IOUtils.closeQuietly( fileManager );
+            }
+        }
+    }
+
+    private CompilerResult compile()
+        throws IOException
+    {
+        return fixture.compile( directory, config, Collections.<CompilerResult> emptyList(), fileManager );
+    }
+
+    private void drain( final WatchKey key )
+    {
+        final Path dir = keys.get( key );
+        for ( final WatchEvent<?> event : key.pollEvents() )
+        {
+            if ( event.kind() == OVERFLOW || dir == null )
+            {
+                continue;
+            }
+
+            final Path path = dir.resolve( (Path) event.context() );
+            logger.debug( "{}: {}", event.kind(), path );
+
+            if ( event.kind() == ENTRY_CREATE && Files.isDirectory( path ) )
+            {
+                try
+                {
+                    registerAll( path );
+                }
+                catch ( final IOException e )
+                {
+                    logger.warn( "Cannot watch new directory: " + path, e );
+                }
+            }
+        }
+
+        if ( !key.reset() )
+        {
+            keys.remove( key );
+        }
+    }
+
+    private void rebuild()
+    {
+        final CompilerResult previous = latest;
+        final CompilerResult result;
+        try
+        {
+            result = compile();
+        }
+        catch ( final IOException | RuntimeException e )
+        {
+            logger.error( "Failed to recompile: " + directory, e );
+            return;
+        }
+
+        latest = result;
+        for ( final CompilerResultListener listener : listeners )
+        {
+            try
+            {
+                listener.compiled( result );
+            }
+            catch ( final RuntimeException e )
+            {
+                logger.error( "Listener failed for: " + directory, e );
+            }
+        }
+
+        if ( previous != null )
+        {
+            fixture.release( previous );
+        }
+    }
+
+    private void registerAll( final Path start )
+        throws IOException
+    {
+        Files.walkFileTree( start, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory( final Path dir, final BasicFileAttributes attrs )
+                throws IOException
+            {
+                keys.put( dir.register( watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE ), dir );
+                return FileVisitResult.CONTINUE;
+            }
+        } );
+    }
+
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import javax.tools.Diagnostic.Kind;
+
+/**
+ * Compact copy of a compiler diagnostic, as held by a {@link DiagnosticIndex}. Unlike the original, it does not
+ * reference the source {@link javax.tools.JavaFileObject}.
+ */
+public final class IndexedDiagnostic
+{
+
+    private final Kind kind;
+
+    private final String source;
+
+    private final long line;
+
+    private final long column;
+
+    private final String code;
+
+    private final String message;
+
+    IndexedDiagnostic( final Kind kind, final String source, final long line, final long column, final String code,
+                       final String message )
+    {
+        this.kind = kind;
+        this.source = source;
+        this.line = line;
+        this.column = column;
+        this.code = code;
+        this.message = message;
+    }
+
+    public Kind getKind()
+    {
+        return kind;
+    }
+
+    /**
+     * Name of the source file, as reported by the compiler, or null if the diagnostic isn't tied to a file.
+     */
+    public String getSource()
+    {
+        return source;
+    }
+
+    public long getLine()
+    {
+        return line;
+    }
+
+    public long getColumn()
+    {
+        return column;
+    }
+
+    /**
+     * Compiler message key, e.g. <code>compiler.err.cant.resolve.location</code>, or null if there isn't one.
+     */
+    public String getCode()
+    {
+        return code;
+    }
+
+    public String getMessage()
+    {
+        return message;
+    }
+
+    @Override
+    public String toString()
+    {
+        if ( source == null )
+        {
+            return kind + ": " + message;
+        }
+
+        return source + ":" + line + ": " + kind + ": " + message;
+    }
+
+}
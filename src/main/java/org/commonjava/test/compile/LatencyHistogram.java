@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Log-linear latency histogram with microsecond resolution. Below 16&micro;s each microsecond has its own bucket;
+ * above that, every power of two is split into eight buckets, so percentiles are accurate to within 12.5% while the
+ * histogram stays a few hundred counters, however many compiles it records.
+ */
+public final class LatencyHistogram
+{
+
+    private static final int LINEAR = 16;
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int LINEAR_BITS = 4;
+
+    private final long[] counts = new long[LINEAR + ( 64 - LINEAR_BITS ) * SUB_BUCKETS];
+
+    private long count;
+
+    private long totalMicros;
+
+    private long minMicros = Long.MAX_VALUE;
+
+    private long maxMicros;
+
+    public synchronized void record( final long nanos )
+    {
+        final long micros = Math.max( 0, TimeUnit.NANOSECONDS.toMicros( nanos ) );
+        counts[index( micros )]++;
+        count++;
+        totalMicros += micros;
+        minMicros = Math.min( minMicros, micros );
+        maxMicros = Math.max( maxMicros, micros );
+    }
+
+    public synchronized long getCount()
+    {
+        return count;
+    }
+
+    public synchronized double getMinMillis()
+    {
+        return count == 0 ? 0 : minMicros / 1000.0;
+    }
+
+    public synchronized double getMaxMillis()
+    {
+        return maxMicros / 1000.0;
+    }
+
+    public synchronized double getMeanMillis()
+    {
+        return count == 0 ? 0 : totalMicros / 1000.0 / count;
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile (0-100), capped at the largest recorded value.
+     */
+    public synchronized double getPercentileMillis( final double percentile )
+    {
+        if ( count == 0 )
+        {
+            return 0;
+        }
+
+        final long rank = Math.max( 1, (long) Math.ceil( count * Math.min( 100, Math.max( 0, percentile ) ) / 100 ) );
+        long seen = 0;
+        for ( int i = 0; i < counts.length; i++ )
+        {
+            seen += counts[i];
+            if ( seen >= rank )
+            {
+                return Math.min( upperBound( i ), maxMicros ) / 1000.0;
+            }
+        }
+
+        return getMaxMillis();
+    }
+
+    /**
+     * Non-empty buckets, as (upper bound in milliseconds, count) pairs in ascending order.
+     */
+    public synchronized List<double[]> getBuckets()
+    {
+        final List<double[]> buckets = new ArrayList<>();
+        for ( int i = 0; i < counts.length; i++ )
+        {
+            if ( counts[i] > 0 )
+            {
+                buckets.add( new double[] { upperBound( i ) / 1000.0, counts[i] } );
+            }
+        }
+
+        return buckets;
+    }
+
+    synchronized void mergeInto( final LatencyHistogram other )
+    {
+        synchronized ( other )
+        {
+            for ( int i = 0; i < counts.length; i++ )
+            {
+                other.counts[i] += counts[i];
+            }
+            other.count += count;
+            other.totalMicros += totalMicros;
+            other.minMicros = Math.min( other.minMicros, minMicros );
+            other.maxMicros = Math.max( other.maxMicros, maxMicros );
+        }
+    }
+
+    static int index( final long micros )
+    {
+        if ( micros < LINEAR )
+        {
+            return (int) micros;
+        }
+
+        final int exponent = 63 - Long.numberOfLeadingZeros( micros );
+        final int sub = (int) ( micros >>> ( exponent - SUB_BUCKET_BITS ) ) & ( SUB_BUCKETS - 1 );
+        return LINEAR + ( exponent - LINEAR_BITS ) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound( final int index )
+    {
+        if ( index < LINEAR )
+        {
+            return index + 1;
+        }
+
+        final int exponent = ( index - LINEAR ) / SUB_BUCKETS + LINEAR_BITS;
+        final int sub = ( index - LINEAR ) % SUB_BUCKETS;
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return ( (long) ( SUB_BUCKETS + sub + 1 ) << shift ) - 1;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format( Locale.ROOT, "count=%d, p50=%.1fms, p95=%.1fms, max=%.1fms", count,
+                              getPercentileMillis( 50 ), getPercentileMillis( 95 ), getMaxMillis() );
+    }
+
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+
+/**
+ * Per-invocation capture of <code>System.out</code> and <code>System.err</code>. The first capture replaces both with
+ * routing streams, once, for the rest of the JVM's life; captures never swap the streams again. Output written
+ * through them by a thread that is capturing (or by a thread it started) goes to that capture's buffers until the
+ * capture stops, and all other output passes through to the streams that were in place when the routing streams were
+ * installed. Code that replaces <code>System.out</code> or <code>System.err</code> afterwards takes them out of the
+ * routing, so later captures miss what is written through its streams. The routing streams encode text as the
+ * original streams do, and captured bytes are decoded the same way.
+ */
+final class OutputCapture
+{
+
+    private static final InheritableThreadLocal<OutputCapture> CURRENT = new InheritableThreadLocal<>();
+
+    private static boolean installed;
+
+    private static Charset outCharset;
+
+    private static Charset errCharset;
+
+    private final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+
+    private final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+
+    private final Charset stdoutCharset;
+
+    private final Charset stderrCharset;
+
+    private OutputCapture previous;
+
+    private volatile boolean stopped;
+
+    private OutputCapture( final Charset stdoutCharset, final Charset stderrCharset )
+    {
+        this.stdoutCharset = stdoutCharset;
+        this.stderrCharset = stderrCharset;
+    }
+
+    /**
+     * Start capturing on the current thread, installing the routing streams if this is the first capture.
+     */
+    static OutputCapture start()
+    {
+        final OutputCapture capture;
+        synchronized ( OutputCapture.class )
+        {
+            if ( !installed )
+            {
+                install();
+            }
+            capture = new OutputCapture( outCharset, errCharset );
+        }
+
+        capture.previous = CURRENT.get();
+        CURRENT.set( capture );
+        return capture;
+    }
+
+    /**
+     * Stop capturing on the current thread, returning to any capture that was in effect before. Threads that inherited
+     * this capture write to the original streams from now on.
+     */
+    void stop()
+    {
+        if ( stopped )
+        {
+            return;
+        }
+
+        System.out.flush();
+        System.err.flush();
+        stopped = true;
+        CURRENT.set( previous );
+    }
+
+    String getStdout()
+    {
+        synchronized ( stdout )
+        {
+            return new String( stdout.toByteArray(), stdoutCharset );
+        }
+    }
+
+    String getStderr()
+    {
+        synchronized ( stderr )
+        {
+            return new String( stderr.toByteArray(), stderrCharset );
+        }
+    }
+
+    private static void install()
+    {
+        outCharset = encoding( "stdout" );
+        errCharset = encoding( "stderr" );
+
+        System.setOut( routing( System.out, false, outCharset ) );
+        System.setErr( routing( System.err, true, errCharset ) );
+        installed = true;
+    }
+
+    private static PrintStream routing( final PrintStream original, final boolean stderr, final Charset charset )
+    {
+        try
+        {
+            return new PrintStream( new RoutingStream( original, stderr ), true, charset.name() );
+        }
+        catch ( final UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException( "Encoding of System." + ( stderr ? "err" : "out" )
+                + " is not supported: " + charset, e );
+        }
+    }
+
+    /**
+     * Encoding the JVM set up the named standard stream with: <code>stdout.encoding</code> (JDK 19+) or
+     * <code>sun.stdout.encoding</code> (set for a console), else the default charset.
+     */
+    private static Charset encoding( final String stream )
+    {
+        for ( final String property : new String[] { stream + ".encoding", "sun." + stream + ".encoding" } )
+        {
+            final String name = System.getProperty( property );
+            if ( name != null && Charset.isSupported( name ) )
+            {
+                return Charset.forName( name );
+            }
+        }
+
+        return Charset.defaultCharset();
+    }
+
+    private static final class RoutingStream
+        extends OutputStream
+    {
+        private final PrintStream original;
+
+        private final boolean stderr;
+
+        RoutingStream( final PrintStream original, final boolean stderr )
+        {
+            this.original = original;
+            this.stderr = stderr;
+        }
+
+        private OutputStream target()
+        {
+            final OutputCapture capture = CURRENT.get();
+            if ( capture == null || capture.stopped )
+            {
+                return original;
+            }
+
+            return stderr ? capture.stderr : capture.stdout;
+        }
+
+        @Override
+        public void write( final int b )
+            throws IOException
+        {
+            final OutputStream target = target();
+            synchronized ( target )
+            {
+                target.write( b );
+            }
+        }
+
+        @Override
+        public void write( final byte[] b, final int off, final int len )
+            throws IOException
+        {
+            final OutputStream target = target();
+            synchronized ( target )
+            {
+                target.write( b, off, len );
+            }
+        }
+
+        @Override
+        public void flush()
+        {
+            original.flush();
+        }
+    }
+
+}
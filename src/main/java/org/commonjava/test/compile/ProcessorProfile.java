@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Time spent by one annotation processor in <code>init</code> and in each processing round, across all of a
+ * compile's processing passes. Available from {@link CompilerResult#getProcessorProfiles()} when profiling is enabled
+ * with {@link CompilerFixtureConfig#withProcessorProfiling()}. A result holds a copy taken when the compile finished,
+ * which doesn't change even if a timed-out processor is still running.
+ */
+public final class ProcessorProfile
+{
+
+    private final String processor;
+
+    private final List<RoundProfile> rounds = new ArrayList<>();
+
+    private long initNanos;
+
+    private boolean budgetExceeded;
+
+    ProcessorProfile( final String processor )
+    {
+        this.processor = processor;
+    }
+
+    public String getProcessor()
+    {
+        return processor;
+    }
+
+    /**
+     * Total time spent in <code>init</code>, which runs once per processing pass.
+     */
+    public long getInitNanos()
+    {
+        return initNanos;
+    }
+
+    public List<RoundProfile> getRounds()
+    {
+        return Collections.unmodifiableList( rounds );
+    }
+
+    public long getProcessNanos()
+    {
+        long total = 0;
+        for ( final RoundProfile round : rounds )
+        {
+            total += round.getProcessNanos();
+        }
+
+        return total;
+    }
+
+    public long getTotalNanos()
+    {
+        return initNanos + getProcessNanos();
+    }
+
+    public int getGeneratedFiles()
+    {
+        int total = 0;
+        for ( final RoundProfile round : rounds )
+        {
+            total += round.getGeneratedFiles();
+        }
+
+        return total;
+    }
+
+    /**
+     * Bytes allocated by the processor's rounds, or -1 if the JVM can't measure that.
+     */
+    public long getAllocatedBytes()
+    {
+        long total = 0;
+        for ( final RoundProfile round : rounds )
+        {
+            if ( round.getAllocatedBytes() < 0 )
+            {
+                return -1;
+            }
+            total += round.getAllocatedBytes();
+        }
+
+        return total;
+    }
+
+    /**
+     * Whether this processor ran past the time budget set with
+     * {@link CompilerFixtureConfig#withProcessorTimeBudget(long)}. If so, the compile was failed with an error
+     * diagnostic.
+     */
+    public boolean isBudgetExceeded()
+    {
+        return budgetExceeded;
+    }
+
+    synchronized void addInit( final long nanos )
+    {
+        initNanos += nanos;
+    }
+
+    synchronized void addRound( final RoundProfile round )
+    {
+        rounds.add( round );
+    }
+
+    synchronized void budgetExceeded()
+    {
+        budgetExceeded = true;
+    }
+
+    /**
+     * Copy of the profile so far, for a result; the processor may keep recording into this one.
+     */
+    synchronized ProcessorProfile snapshot()
+    {
+        final ProcessorProfile copy = new ProcessorProfile( processor );
+        copy.rounds.addAll( rounds );
+        copy.initNanos = initNanos;
+        copy.budgetExceeded = budgetExceeded;
+        return copy;
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder sb = new StringBuilder();
+        sb.append( processor )
+          .append( String.format( ": init %.3f ms, process %.3f ms, %d files generated, %d bytes allocated",
+                                  initNanos / 1000000.0, getProcessNanos() / 1000000.0, getGeneratedFiles(),
+                                  getAllocatedBytes() ) );
+        for ( final RoundProfile round : rounds )
+        {
+            sb.append( "\n  " )
+              .append( round );
+        }
+
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,282 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.Completion;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.JavaFileManager.Location;
+import javax.tools.JavaFileObject;
+
+/**
+ * Wraps an annotation processor to record its time in <code>init</code> and <code>process</code>, the elements it was
+ * handed and the files it generated in each round, into a {@link ProcessorProfile}. If the processor's total time
+ * goes over the budget, an error is reported through the Messager, which fails the compile.
+ * <p>
+ * The wrapper passes through the processor's supported options, annotation types and source version. Because javac
+ * names the processor's class when it warns that the supported source version is older than <code>-source</code>,
+ * the wrapper claims the latest version itself and gives that warning for the wrapped processor instead.
+ * <p>
+ * The wrapped processor sees a delegating {@link ProcessingEnvironment}, so processors that cast it to javac's own
+ * implementation won't work with profiling enabled.
+ */
+final class ProfilingProcessor
+    implements Processor
+{
+
+    private final Processor delegate;
+
+    private final ProcessorProfile profile;
+
+    private final int pass;
+
+    private final long budgetNanos;
+
+    private ProcessingEnvironment env;
+
+    private int round;
+
+    private int generatedFiles;
+
+    ProfilingProcessor( final Processor delegate, final ProcessorProfile profile, final int pass,
+                        final long budgetNanos )
+    {
+        this.delegate = delegate;
+        this.profile = profile;
+        this.pass = pass;
+        this.budgetNanos = budgetNanos;
+    }
+
+    @Override
+    public Set<String> getSupportedOptions()
+    {
+        return delegate.getSupportedOptions();
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes()
+    {
+        return delegate.getSupportedAnnotationTypes();
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        final SourceVersion supported = delegate.getSupportedSourceVersion();
+        return supported.compareTo( SourceVersion.latest() ) < 0 ? SourceVersion.latest() : supported;
+    }
+
+    @Override
+    public void init( final ProcessingEnvironment processingEnv )
+    {
+        env = processingEnv;
+
+        final long start = System.nanoTime();
+        try
+        {
+            delegate.init( new CountingEnvironment( processingEnv ) );
+        }
+        finally
+        {
+            profile.addInit( System.nanoTime() - start );
+        }
+
+        final SourceVersion supported = delegate.getSupportedSourceVersion();
+        final SourceVersion source = processingEnv.getSourceVersion();
+        if ( supported.compareTo( source ) < 0 )
+        {
+            // javac's own wording, naming the wrapped processor rather than this class.
+            final String message =
+                String.format( "Supported source version '%s' from annotation processor '%s' less than -source '%s'",
+                               supported, delegate.getClass()
+                                                  .getName(), source.name()
+                                                                    .substring( "RELEASE_".length() ) );
+            processingEnv.getMessager()
+                         .printMessage( Kind.WARNING, message );
+        }
+
+        checkBudget();
+    }
+
+    @Override
+    public boolean process( final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv )
+    {
+        round++;
+
+        int elements = 0;
+        for ( final TypeElement annotation : annotations )
+        {
+            elements += roundEnv.getElementsAnnotatedWith( annotation )
+                                .size();
+        }
+
+        final int filesBefore = generatedFiles;
+        final long bytesBefore = CompileMemory.allocatedBytes();
+        final long start = System.nanoTime();
+        try
+        {
+            return delegate.process( annotations, roundEnv );
+        }
+        finally
+        {
+            final long nanos = System.nanoTime() - start;
+            final long bytes = bytesBefore < 0 ? -1 : CompileMemory.allocatedBytes() - bytesBefore;
+            profile.addRound( new RoundProfile( pass, round, nanos, elements, generatedFiles - filesBefore, bytes ) );
+            checkBudget();
+        }
+    }
+
+    @Override
+    public Iterable<? extends Completion> getCompletions( final Element element, final AnnotationMirror annotation,
+                                                          final ExecutableElement member, final String userText )
+    {
+        return delegate.getCompletions( element, annotation, member, userText );
+    }
+
+    private void checkBudget()
+    {
+        if ( budgetNanos > 0 && !profile.isBudgetExceeded() && profile.getTotalNanos() > budgetNanos )
+        {
+            profile.budgetExceeded();
+            env.getMessager()
+               .printMessage( Kind.ERROR,
+                              String.format( "Annotation processor: %s exceeded its time budget of %d ms (took %d ms).",
+                                             profile.getProcessor(), budgetNanos / 1000000,
+                                             profile.getTotalNanos() / 1000000 ) );
+        }
+    }
+
+    private final class CountingEnvironment
+        implements ProcessingEnvironment
+    {
+        private final ProcessingEnvironment env;
+
+        private final Filer filer;
+
+        CountingEnvironment( final ProcessingEnvironment env )
+        {
+            this.env = env;
+            this.filer = new CountingFiler( env.getFiler() );
+        }
+
+        @Override
+        public Map<String, String> getOptions()
+        {
+            return env.getOptions();
+        }
+
+        @Override
+        public Messager getMessager()
+        {
+            return env.getMessager();
+        }
+
+        @Override
+        public Filer getFiler()
+        {
+            return filer;
+        }
+
+        @Override
+        public Elements getElementUtils()
+        {
+            return env.getElementUtils();
+        }
+
+        @Override
+        public Types getTypeUtils()
+        {
+            return env.getTypeUtils();
+        }
+
+        @Override
+        public SourceVersion getSourceVersion()
+        {
+            return env.getSourceVersion();
+        }
+
+        @Override
+        public Locale getLocale()
+        {
+            return env.getLocale();
+        }
+    }
+
+    private final class CountingFiler
+        implements Filer
+    {
+        private final Filer filer;
+
+        CountingFiler( final Filer filer )
+        {
+            this.filer = filer;
+        }
+
+        @Override
+        public JavaFileObject createSourceFile( final CharSequence name, final Element... originatingElements )
+            throws IOException
+        {
+            final JavaFileObject file = filer.createSourceFile( name, originatingElements );
+            generatedFiles++;
+            return file;
+        }
+
+        @Override
+        public JavaFileObject createClassFile( final CharSequence name, final Element... originatingElements )
+            throws IOException
+        {
+            final JavaFileObject file = filer.createClassFile( name, originatingElements );
+            generatedFiles++;
+            return file;
+        }
+
+        @Override
+        public FileObject createResource( final Location location, final CharSequence pkg,
+                                          final CharSequence relativeName, final Element... originatingElements )
+            throws IOException
+        {
+            final FileObject file = filer.createResource( location, pkg, relativeName, originatingElements );
+            generatedFiles++;
+            return file;
+        }
+
+        @Override
+        public FileObject getResource( final Location location, final CharSequence pkg,
+                                       final CharSequence relativeName )
+            throws IOException
+        {
+            return filer.getResource( location, pkg, relativeName );
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * Memory accounting for a {@link CompilerResult}. The class counts are exact for the result's own class loader. The
+ * metaspace and heap figures are JVM-wide usage deltas between the moment the class loader was created and the moment
+ * the footprint was taken (or the result closed), so they are only meaningful when tests don't overlap.
+ */
+public final class ResultFootprint
+{
+
+    private final int definedClasses;
+
+    private final long definedClassBytes;
+
+    private final long metaspaceDelta;
+
+    private final long heapDelta;
+
+    ResultFootprint( final int definedClasses, final long definedClassBytes, final long metaspaceDelta,
+                     final long heapDelta )
+    {
+        this.definedClasses = definedClasses;
+        this.definedClassBytes = definedClassBytes;
+        this.metaspaceDelta = metaspaceDelta;
+        this.heapDelta = heapDelta;
+    }
+
+    public int getDefinedClasses()
+    {
+        return definedClasses;
+    }
+
+    public long getDefinedClassBytes()
+    {
+        return definedClassBytes;
+    }
+
+    public long getMetaspaceDelta()
+    {
+        return metaspaceDelta;
+    }
+
+    public long getHeapDelta()
+    {
+        return heapDelta;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "%d classes (%d bytes of class files), metaspace delta: %d, heap delta: %d",
+                              definedClasses, definedClassBytes, metaspaceDelta, heapDelta );
+    }
+
+    static long metaspaceUsed()
+    {
+        long used = 0;
+        for ( final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+        {
+            if ( pool.getType() == MemoryType.NON_HEAP && pool.getName()
+                                                              .contains( "Metaspace" ) )
+            {
+                used += pool.getUsage()
+                            .getUsed();
+            }
+        }
+
+        return used;
+    }
+
+    static long heapUsed()
+    {
+        return ManagementFactory.getMemoryMXBean()
+                                .getHeapMemoryUsage()
+                                .getUsed();
+    }
+
+}
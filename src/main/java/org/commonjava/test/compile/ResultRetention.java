@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+/**
+ * How a {@link CompilerFixture} holds on to the {@link CompilerResult}s it hands out until the end of the test.
+ */
+public enum ResultRetention
+{
+
+    /**
+     * Keep every result (with its diagnostics and class loader) until the test finishes, then close it. This is the
+     * default.
+     */
+    STRONG,
+
+    /**
+     * Keep results only as long as the test references them. Results the test has dropped can be collected, along
+     * with their class loaders and classes, before the test finishes; the rest are closed when it does.
+     */
+    WEAK;
+
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+/**
+ * What one annotation processor did in one processing round. See {@link ProcessorProfile}.
+ */
+public final class RoundProfile
+{
+
+    private final int pass;
+
+    private final int round;
+
+    private final long processNanos;
+
+    private final int elements;
+
+    private final int generatedFiles;
+
+    private final long allocatedBytes;
+
+    RoundProfile( final int pass, final int round, final long processNanos, final int elements,
+                  final int generatedFiles, final long allocatedBytes )
+    {
+        this.pass = pass;
+        this.round = round;
+        this.processNanos = processNanos;
+        this.elements = elements;
+        this.generatedFiles = generatedFiles;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * The fixture's processing pass (javac invocation), starting at 1.
+     */
+    public int getPass()
+    {
+        return pass;
+    }
+
+    /**
+     * The round within the pass, starting at 1. The last round of each pass is javac's final round, in which
+     * processors see no new elements.
+     */
+    public int getRound()
+    {
+        return round;
+    }
+
+    public long getProcessNanos()
+    {
+        return processNanos;
+    }
+
+    /**
+     * Number of elements annotated with the annotations handed to the processor in this round.
+     */
+    public int getElements()
+    {
+        return elements;
+    }
+
+    /**
+     * Number of source, class and resource files the processor created through the Filer in this round.
+     */
+    public int getGeneratedFiles()
+    {
+        return generatedFiles;
+    }
+
+    /**
+     * Bytes the processor allocated on javac's thread in this round, or -1 if the JVM can't measure that.
+     */
+    public long getAllocatedBytes()
+    {
+        return allocatedBytes;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "pass %d, round %d: %d elements, %d files generated in %.3f ms, %d bytes allocated",
+                              pass, round, elements, generatedFiles, processNanos / 1000000.0, allocatedBytes );
+    }
+
+}
@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits a fixture's sources into groups that don't reference each other, so each group can be compiled by its own
+ * javac task. References come from a quick textual pre-parse (package, imports, declared type names, identifiers and
+ * qualified names, with comments and literals stripped), not from javac, so they over-approximate: a name that might
+ * refer to another source file links the two. A missed reference only costs javac a trip to the sourcepath.
+ */
+final class SourcePartitioner
+{
+
+    private static final Pattern COMMENTS_AND_LITERALS =
+        Pattern.compile( "//[^\\n]*|/\\*.*?\\*/|\"(?:\\\\.|[^\"\\\\])*\"|'(?:\\\\.|[^'\\\\])*'", Pattern.DOTALL );
+
+    private static final Pattern PACKAGE = Pattern.compile( "\\bpackage\\s+([\\w$.]+)\\s*;" );
+
+    private static final Pattern IMPORT =
+        Pattern.compile( "\\bimport\\s+(static\\s+)?([\\w$]+(?:\\s*\\.\\s*[\\w$]+)*)(\\s*\\.\\s*\\*)?\\s*;" );
+
+    // 'record' (Java 16) is not recognised: a reference to a record doesn't join its file's partition, so the partition
+    // that uses it only has to read it from the sourcepath.
+    private static final Pattern DECLARATION = Pattern.compile( "\\b(?:class|interface|enum)\\s+([A-Za-z_$][\\w$]*)" );
+
+    private static final Pattern NAME =
+        Pattern.compile( "[A-Za-z_$][\\w$]*(?:\\s*\\.\\s*[A-Za-z_$][\\w$]*)*" );
+
+    private static final Pattern WHITESPACE = Pattern.compile( "\\s+" );
+
+    private SourcePartitioner()
+    {
+    }
+
+    /**
+     * Group the sources into independent partitions (connected components of the reference graph), in the order of
+     * their first source file.
+     */
+    static List<List<File>> partition( final List<File> sources )
+        throws IOException
+    {
+        final List<Parsed> parsed = new ArrayList<>( sources.size() );
+        for ( final File source : sources )
+        {
+            parsed.add( parse( source ) );
+        }
+
+        final int[] parent = new int[sources.size()];
+        for ( int i = 0; i < parent.length; i++ )
+        {
+            parent[i] = i;
+        }
+
+        final Map<String, Integer> types = new HashMap<>();
+        for ( int i = 0; i < parsed.size(); i++ )
+        {
+            for ( final String decl : parsed.get( i ).declarations )
+            {
+                final Integer other = types.put( qualify( parsed.get( i ).pkg, decl ), i );
+                if ( other != null )
+                {
+                    union( parent, i, other );
+                }
+            }
+        }
+
+        for ( int i = 0; i < parsed.size(); i++ )
+        {
+            final Parsed p = parsed.get( i );
+            for ( final String name : p.names )
+            {
+                final int dot = name.indexOf( '.' );
+                final String first = dot < 0 ? name : name.substring( 0, dot );
+
+                link( parent, i, types.get( qualify( p.pkg, first ) ) );
+                for ( final String onDemand : p.onDemandImports )
+                {
+                    link( parent, i, types.get( onDemand + "." + first ) );
+                }
+
+                if ( dot > 0 )
+                {
+                    link( parent, i, resolve( types, name ) );
+                }
+            }
+
+            for ( final String imported : p.imports )
+            {
+                link( parent, i, resolve( types, imported ) );
+            }
+        }
+
+        final Map<Integer, List<File>> groups = new LinkedHashMap<>();
+        for ( int i = 0; i < sources.size(); i++ )
+        {
+            final int root = find( parent, i );
+            List<File> group = groups.get( root );
+            if ( group == null )
+            {
+                group = new ArrayList<>();
+                groups.put( root, group );
+            }
+            group.add( sources.get( i ) );
+        }
+
+        return new ArrayList<>( groups.values() );
+    }
+
+    private static Parsed parse( final File source )
+        throws IOException
+    {
+        final String text = COMMENTS_AND_LITERALS.matcher( new String( Files.readAllBytes( source.toPath() ),
+                                                                       StandardCharsets.UTF_8 ) )
+                                                 .replaceAll( " " );
+
+        final Parsed parsed = new Parsed();
+
+        final Matcher pkg = PACKAGE.matcher( text );
+        if ( pkg.find() )
+        {
+            parsed.pkg = pkg.group( 1 );
+        }
+
+        final Matcher imports = IMPORT.matcher( text );
+        while ( imports.find() )
+        {
+            final String name = WHITESPACE.matcher( imports.group( 2 ) )
+                                          .replaceAll( "" );
+            if ( imports.group( 3 ) != null && imports.group( 1 ) == null )
+            {
+                parsed.onDemandImports.add( name );
+            }
+            else
+            {
+                parsed.imports.add( name );
+            }
+        }
+
+        final Matcher decls = DECLARATION.matcher( text );
+        while ( decls.find() )
+        {
+            parsed.declarations.add( decls.group( 1 ) );
+        }
+
+        final Matcher names = NAME.matcher( text );
+        while ( names.find() )
+        {
+            parsed.names.add( WHITESPACE.matcher( names.group() )
+                                        .replaceAll( "" ) );
+        }
+
+        return parsed;
+    }
+
+    /**
+     * Find the source declaring the longest prefix of a qualified name, e.g. <code>org.test.Name</code> for
+     * <code>org.test.Name.NAME</code>.
+     */
+    private static Integer resolve( final Map<String, Integer> types, final String name )
+    {
+        String candidate = name;
+        while ( true )
+        {
+            final Integer idx = types.get( candidate );
+            if ( idx != null )
+            {
+                return idx;
+            }
+
+            final int dot = candidate.lastIndexOf( '.' );
+            if ( dot < 0 )
+            {
+                return null;
+            }
+            candidate = candidate.substring( 0, dot );
+        }
+    }
+
+    private static String qualify( final String pkg, final String name )
+    {
+        return pkg.isEmpty() ? name : pkg + "." + name;
+    }
+
+    private static void link( final int[] parent, final int from, final Integer to )
+    {
+        if ( to != null )
+        {
+            union( parent, from, to );
+        }
+    }
+
+    private static void union( final int[] parent, final int a, final int b )
+    {
+        parent[find( parent, a )] = find( parent, b );
+    }
+
+    private static int find( final int[] parent, final int idx )
+    {
+        int i = idx;
+        while ( parent[i] != i )
+        {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+
+        return i;
+    }
+
+    private static final class Parsed
+    {
+        private String pkg = "";
+
+        private final Collection<String> imports = new ArrayList<>();
+
+        private final Collection<String> onDemandImports = new ArrayList<>();
+
+        private final Collection<String> declarations = new ArrayList<>();
+
+        private final Set<String> names = new HashSet<>();
+    }
+
+}
@@ -0,0 +1,257 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler.CompilationTask;
+import javax.tools.JavaFileObject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+
+/**
+ * Runs a javac task, recording phase timings and enforcing a time limit. With a limit, the task runs on a worker
+ * thread; when the limit passes, the task is cancelled cooperatively (the next javac task event throws) and the worker
+ * is interrupted. Code that neither reaches a task event nor checks for interruption (e.g. a processor stuck in a
+ * loop) keeps its worker busy, but the caller gets its (failed) result on time either way.
+ * <p>
+ * A task that may time out should report to its own {@link DiagnosticCollector}, which is copied into the caller's
+ * only if the task finishes in time; a timed-out task's diagnostics are dropped, so a worker that is still running
+ * cannot add to the caller's afterwards. It can still write class or source files into the task's output directories
+ * after the timeout has been reported, until it stops.
+ */
+final class TaskRunner
+{
+
+    private static final long CANCEL_GRACE_MILLIS = 1000;
+
+    private static final ExecutorService WORKERS =
+        Executors.newCachedThreadPool( new FixtureThreads( "compiler-fixture-javac" ) );
+
+    private TaskRunner()
+    {
+    }
+
+    /**
+     * @param taskDiags the collector the task was created with
+     * @param diags the collector that receives the task's diagnostics once it finishes in time. May be
+     *            <code>taskDiags</code> itself when there is no time limit.
+     * @param timeoutNanos time limit for this task, or 0 (or less) for none
+     * @param analyzeOnly stop after attribution and flow analysis, without generating class files. The result is then
+     *            only whether analysis ran to the end; errors are left in the task's diagnostics.
+     */
+    static Boolean run( final CompilationTask task, final DiagnosticCollector<JavaFileObject> taskDiags,
+                        final DiagnosticCollector<JavaFileObject> diags, final CompileTimings timings,
+                        final CompileMemory memory, final long timeoutNanos, final boolean analyzeOnly )
+        throws IOException
+    {
+        final CancellingListener listener = new CancellingListener( timings );
+        if ( task instanceof JavacTask )
+        {
+            ( (JavacTask) task ).setTaskListener( listener );
+        }
+
+        timings.passStarted();
+        if ( timeoutNanos <= 0 )
+        {
+            try
+            {
+                return execute( task, memory, analyzeOnly );
+            }
+            finally
+            {
+                publish( taskDiags, diags );
+            }
+        }
+
+        final ClassLoader ccl = Thread.currentThread()
+                                      .getContextClassLoader();
+        final Future<Boolean> future = WORKERS.submit( new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+                throws IOException
+            {
+                Thread.currentThread()
+                      .setContextClassLoader( ccl );
+                return execute( task, memory, analyzeOnly );
+            }
+        } );
+
+        try
+        {
+            final Boolean result = future.get( timeoutNanos, TimeUnit.NANOSECONDS );
+            publish( taskDiags, diags );
+            return result;
+        }
+        catch ( final TimeoutException e )
+        {
+            timings.timedOut();
+            listener.cancel();
+            future.cancel( true );
+
+            // give the task a chance to stop before the caller moves on; its diagnostics are dropped either way.
+            try
+            {
+                future.get( CANCEL_GRACE_MILLIS, TimeUnit.MILLISECONDS );
+            }
+            catch ( final TimeoutException | ExecutionException | CancellationException e1 )
+            {
+                LoggerFactory.getLogger( TaskRunner.class )
+                             .debug( "Timed-out compile stopped with: {}", String.valueOf( e1 ) );
+            }
+            catch ( final InterruptedException e1 )
+            {
+                Thread.currentThread()
+                      .interrupt();
+            }
+
+            return Boolean.FALSE;
+        }
+        catch ( final InterruptedException e )
+        {
+            listener.cancel();
+            future.cancel( true );
+            Thread.currentThread()
+                  .interrupt();
+            return Boolean.FALSE;
+        }
+        catch ( final ExecutionException e )
+        {
+            publish( taskDiags, diags );
+
+            final Throwable cause = e.getCause();
+            if ( cause instanceof IOException )
+            {
+                throw (IOException) cause;
+            }
+            else if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+
+            throw (Error) cause;
+        }
+    }
+
+    private static void publish( final DiagnosticCollector<JavaFileObject> taskDiags,
+                                 final DiagnosticCollector<JavaFileObject> diags )
+    {
+        if ( taskDiags == diags )
+        {
+            return;
+        }
+
+        for ( final Diagnostic<? extends JavaFileObject> diag : taskDiags.getDiagnostics() )
+        {
+            diags.report( diag );
+        }
+    }
+
+    private static Boolean execute( final CompilationTask task, final CompileMemory memory, final boolean analyzeOnly )
+        throws IOException
+    {
+        final long token = memory.taskStarted();
+        try
+        {
+            return execute( task, analyzeOnly );
+        }
+        finally
+        {
+            memory.taskFinished( token );
+        }
+    }
+
+    private static Boolean execute( final CompilationTask task, final boolean analyzeOnly )
+        throws IOException
+    {
+        if ( !analyzeOnly )
+        {
+            return task.call();
+        }
+
+        if ( !( task instanceof JavacTask ) )
+        {
+            LoggerFactory.getLogger( TaskRunner.class )
+                         .debug( "Compiler task: {} cannot stop after analysis. Compiling fully.", task );
+            return task.call();
+        }
+
+        ( (JavacTask) task ).analyze();
+        return Boolean.TRUE;
+    }
+
+    private static final class CancellingListener
+        implements TaskListener
+    {
+        private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+        private final CompileTimings timings;
+
+        private volatile boolean cancelled;
+
+        CancellingListener( final CompileTimings timings )
+        {
+            this.timings = timings;
+        }
+
+        void cancel()
+        {
+            cancelled = true;
+        }
+
+        @Override
+        public void started( final TaskEvent e )
+        {
+            checkCancelled();
+            timings.phaseStarted( e.getKind()
+                                   .name() );
+        }
+
+        @Override
+        public void finished( final TaskEvent e )
+        {
+            timings.phaseFinished( e.getKind()
+                                    .name() );
+            checkCancelled();
+        }
+
+        private void checkCancelled()
+        {
+            if ( cancelled )
+            {
+                logger.debug( "Cancelling timed-out compile." );
+                throw new CancellationException( "Compile timed out." );
+            }
+        }
+    }
+
+}
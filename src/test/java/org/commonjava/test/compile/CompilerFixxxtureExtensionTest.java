@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ExtensionContext.Namespace;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.rules.TemporaryFolder;
+
+@ExtendWith( CompilerFixxxtureExtensionTest.StoreCheck.class )
+public class CompilerFixxxtureExtensionTest
+{
+
+    @RegisterExtension
+    static final CompilerFixtureExtension EXTENSION = new CompilerFixtureExtension();
+
+    private CompilerFixture injected;
+
+    @BeforeEach
+    public void setUp( final CompilerFixture compiler )
+    {
+        injected = compiler;
+    }
+
+    @Test
+    public void injectsOneFixturePerTest( final CompilerFixture compiler )
+        throws Exception
+    {
+        assertSame( injected, compiler );
+
+        final CompilerResult result = compiler.compileSourceDirWithThisClass( "jdk-only", "org.test.Hello" );
+        assertTrue( result.getResult() );
+        StoreCheck.classes = result.getClasses();
+    }
+
+    @AfterEach
+    public void tearDown()
+    {
+        injected = null;
+    }
+
+    /**
+     * Runs after the fixture extension's cleanup (extensions registered by <code>@ExtendWith</code> on the class wrap
+     * the field-registered one), and checks that it emptied the store and removed the fixture's temporary folder.
+     */
+    public static class StoreCheck
+        implements AfterEachCallback
+    {
+        static File classes;
+
+        @Override
+        public void afterEach( final ExtensionContext context )
+        {
+            final ExtensionContext.Store store = context.getStore( Namespace.create( CompilerFixtureExtension.class ) );
+            assertNull( store.get( CompilerFixture.class ) );
+            assertNull( store.get( TemporaryFolder.class ) );
+
+            assertNotNull( classes );
+            assertFalse( classes.exists() );
+            classes = null;
+        }
+    }
+
+}
@@ -18,15 +18,44 @@ package org.commonjava.test.compile;
 import static org.apache.commons.lang.StringUtils.join;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URLClassLoader;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+
+import javax.tools.Diagnostic.Kind;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -35,6 +64,8 @@ import org.junit.rules.TestName;
 public class CompilerFixxxtureTest
 {
 
+    private static Class<?> leaked;
+
     @Rule
     public TemporaryFolder temp = new TemporaryFolder();
 
@@ -58,6 +89,167 @@ public class CompilerFixxxtureTest
         testHelloWorld( "jdk-only-fails", false );
     }
 
+    @Test
+    public void compileDependingOnlyOnJDK_NonCompilable_IndexedDiagnostics()
+        throws Exception
+    {
+        final CompilerResult result = compiler.compileSourceDirWithThisClass( "jdk-only-fails", "org.test.Hello" );
+        assertThat( result.getResult(), equalTo( Boolean.FALSE ) );
+
+        final DiagnosticIndex index = result.getDiagnosticIndex();
+        assertThat( index.hasErrors(), equalTo( true ) );
+        assertThat( index.getBySource( "org/test/Hello.java" )
+                         .isEmpty(), equalTo( false ) );
+
+        final List<IndexedDiagnostic> atLine = index.getAt( "org/test/Hello.java", 8 );
+        assertThat( atLine.size(), equalTo( 1 ) );
+        assertThat( atLine.get( 0 )
+                          .getKind(), equalTo( Kind.ERROR ) );
+        assertThat( index.countByCode( atLine.get( 0 )
+                                             .getCode() ), equalTo( 1 ) );
+    }
+
+    @Test
+    public void analyzeOnlyReportsResultWithoutClassOutput()
+        throws Exception
+    {
+        final CompilerResult ok =
+            compiler.compileSourceDirWithThisClass( "interdep", "org.test.Hello",
+                                                    new CompilerFixtureConfig().withAnalyzeOnly() );
+        assertThat( ok.getResult(), equalTo( Boolean.TRUE ) );
+        assertThat( compiler.scan( ok.getClasses(), "**/*.class" )
+                            .isEmpty(), equalTo( true ) );
+        assertThat( ok.getTimings()
+                      .getPhaseNanos()
+                      .containsKey( "GENERATE" ), equalTo( false ) );
+
+        final CompilerResult broken =
+            compiler.compileSourceDirWithThisClass( "jdk-only-fails", "org.test.Hello",
+                                                    new CompilerFixtureConfig().withAnalyzeOnly() );
+        assertThat( broken.getResult(), equalTo( Boolean.FALSE ) );
+        assertThat( broken.getDiagnosticIndex()
+                          .hasErrors(), equalTo( true ) );
+    }
+
+    @Test
+    public void excludedSourceReferencedElsewhereIsGeneratedImplicitly()
+        throws Exception
+    {
+        final CompilerResult result =
+            compiler.compileSourceDirWithThisClass( "root-class", "org.test.Hello",
+                                                    new CompilerFixtureConfig().withExcludes( "org/test/broken",
+                                                                                              "org/test/Name.java" ) );
+        assertThat( result.getResult(), equalTo( Boolean.TRUE ) );
+        assertThat( new File( result.getClasses(), "org/test/Name.class" ).isFile(), equalTo( true ) );
+        result.getClassLoader()
+              .loadClass( "org.test.Hello" )
+              .getMethod( "main", new Class[] { String[].class } )
+              .invoke( null, new Object[] { new String[] {} } );
+
+        // turned off explicitly, the referenced class compiles but is never generated.
+        final CompilerResult explicit =
+            compiler.compileSourceDirWithThisClass( "root-class", "org.test.Hello",
+                                                    new CompilerFixtureConfig().withExcludes( "org/test/broken",
+                                                                                              "org/test/Name.java" )
+                                                                               .withImplicitCompilation( false ) );
+        assertThat( explicit.getResult(), equalTo( Boolean.TRUE ) );
+        assertThat( new File( explicit.getClasses(), "org/test/Name.class" ).exists(), equalTo( false ) );
+
+        try
+        {
+            explicit.getClassLoader()
+                    .loadClass( "org.test.Hello" )
+                    .getMethod( "main", new Class[] { String[].class } )
+                    .invoke( null, new Object[] { new String[] {} } );
+            fail( "Excluded class should not have been generated." );
+        }
+        catch ( final InvocationTargetException e )
+        {
+            assertThat( e.getCause() instanceof NoClassDefFoundError, equalTo( true ) );
+        }
+
+        try
+        {
+            new CompilerFixtureConfig().withRootClasses( "org.test.Hello" )
+                                       .withExcludes( "org/test/broken" );
+            fail( "Excludes should not combine with root classes." );
+        }
+        catch ( final IllegalArgumentException e )
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void compileIndependentPartitionsInParallel()
+        throws Exception
+    {
+        final File dir = getFixtureDir( "partitioned" );
+        final List<List<File>> partitions = SourcePartitioner.partition( compiler.scan( dir, "**/*.java" ) );
+        assertThat( partitions.size(), equalTo( 2 ) );
+
+        final CompilerResult result = compiler.compile( dir, new CompilerFixtureConfig().withParallelPartitions( 2 ) );
+        assertThat( result.getResult(), equalTo( Boolean.TRUE ) );
+        assertThat( result.getTimings()
+                          .getPasses(), equalTo( 2 ) );
+        assertThat( compiler.scan( result.getClasses(), "**/*.class" )
+                            .size(), equalTo( 4 ) );
+
+        result.getClassLoader()
+              .loadClass( "org.c.Hello" )
+              .getMethod( "main", new Class[] { String[].class } )
+              .invoke( null, new Object[] { new String[] {} } );
+    }
+
+    @Test
+    public void runnerCapturesOutputOfConcurrentInvocations()
+        throws Exception
+    {
+        final CompilerResult result = compiler.compile( getFixtureDir( "runner" ) );
+        assertThat( result.getResult(), equalTo( Boolean.TRUE ) );
+
+        // the routing streams are installed once; later invocations don't swap them.
+        assertThat( result.getRunner()
+                          .run( "org.run.Hello" )
+                          .getStdout(), equalTo( "Hello, Tester" + System.lineSeparator() ) );
+        final PrintStream out = System.out;
+        final PrintStream err = System.err;
+
+        final List<String[]> argLists = new ArrayList<>();
+        for ( int i = 0; i < 16; i++ )
+        {
+            argLists.add( new String[] { "Tester" + i } );
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        final List<ExecutionResult> runs;
+        try
+        {
+            runs = result.getRunner()
+                         .runAll( executor, "org.run.Hello", argLists );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        assertThat( System.out == out, equalTo( true ) );
+        assertThat( System.err == err, equalTo( true ) );
+
+        final String eol = System.getProperty( "line.separator" );
+        for ( int i = 0; i < runs.size(); i++ )
+        {
+            final ExecutionResult run = runs.get( i );
+            assertThat( run.isSuccess(), equalTo( true ) );
+            assertThat( run.getStdout(), equalTo( "Hello, Tester" + i + eol ) );
+            assertThat( run.getStderr(), equalTo( "greeted: 1" + eol ) );
+        }
+
+        assertThat( result.getRunner()
+                          .run( "org.run.Hello", (String[]) null )
+                          .getError() instanceof NullPointerException, equalTo( true ) );
+    }
+
     @Test
     public void compileInterdependentClasses()
         throws Exception
@@ -65,6 +257,33 @@ public class CompilerFixxxtureTest
         testHelloWorld( "interdep", true );
     }
 
+    @Test
+    public void compileOnlyRootClassAndItsDependencies()
+        throws Exception
+    {
+        final CompilerResult result =
+            compiler.compileSourceDirWithThisClass( "root-class", "org.test.Hello",
+                                                    new CompilerFixtureConfig().withRootClasses( "org.test.Hello" ) );
+        assertThat( result.getResult(), equalTo( Boolean.TRUE ) );
+
+        final List<File> classfiles = compiler.scan( result.getClasses(), "**/*.class" );
+        System.out.printf( "%d classes generated in: %s\n%s\n", classfiles.size(), result.getClasses(),
+                           join( classfiles, "\n" ) );
+        assertThat( classfiles.size(), equalTo( 2 ) );
+        assertThat( new File( result.getClasses(), "org/test/Name.class" ).isFile(), equalTo( true ) );
+    }
+
+    @Test
+    public void compileWithExcludedSubtree()
+        throws Exception
+    {
+        final CompilerResult result =
+            compiler.compileSourceDirWithThisClass( "root-class", "org.test.Hello",
+                                                    new CompilerFixtureConfig().withExcludes( "org/test/broken" ) );
+        assertThat( result.getResult(), equalTo( Boolean.TRUE ) );
+        assertThat( new File( result.getClasses(), "org/test/broken/Broken.class" ).exists(), equalTo( false ) );
+    }
+
     @Test
     public void compileDependingOnlyOnJDK_UseServiceLoader()
         throws Exception
@@ -103,6 +322,80 @@ public class CompilerFixxxtureTest
         method.invoke( object, new Object[] { "Tester" } );
     }
 
+    @Test
+    public void compileDependingOnCallerClasspath_AbiSnapshot()
+        throws Exception
+    {
+        final CompilerResult result =
+            compiler.compileSourceDirWithThisClass( "dep-on-calling-cp", "org.test.Hello",
+                                                    new CompilerFixtureConfig().withCallerClasspathAbi() );
+        assertThat( result.getResult(), equalTo( Boolean.TRUE ) );
+
+        final Class<?> cls = result.getClassLoader()
+                                   .loadClass( "org.test.Hello" );
+
+        final Object object = cls.newInstance();
+
+        final Method method = MyInterface.class.getMethod( "sayHello", new Class[] { String.class } );
+
+        System.out.println( method );
+        method.invoke( object, new Object[] { "Tester" } );
+    }
+
+    @Test
+    public void abiSnapshotKeepsVersionedClassesOfMultiReleaseJars()
+        throws Exception
+    {
+        final byte[] bytes = IOUtils.toByteArray( getClass().getResourceAsStream( "ExecutionResult.class" ) );
+
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes()
+                .put( Attributes.Name.MANIFEST_VERSION, "1.0" );
+        manifest.getMainAttributes()
+                .put( Attributes.Name.MULTI_RELEASE, "true" );
+
+        final File jar = temp.newFile( "multi-release.jar" );
+        try (JarOutputStream out = new JarOutputStream( new FileOutputStream( jar ), manifest ))
+        {
+            for ( final String name : new String[] { "org/mr/Api.class", "META-INF/versions/9/org/mr/Api.class" } )
+            {
+                out.putNextEntry( new ZipEntry( name ) );
+                out.write( bytes );
+                out.closeEntry();
+            }
+        }
+
+        final ClasspathAbiSnapshot snapshot =
+            ClasspathAbiSnapshot.build( Collections.singletonList( jar ), temp.newFolder( "abi-cache" ) );
+        try (JarFile abi = new JarFile( snapshot.getAbiEntries()
+                                                .get( 0 ) ))
+        {
+            assertThat( abi.getEntry( "org/mr/Api.class" ) != null, equalTo( true ) );
+            assertThat( abi.getEntry( "META-INF/versions/9/org/mr/Api.class" ) != null, equalTo( true ) );
+            assertThat( abi.isMultiRelease(), equalTo( true ) );
+        }
+    }
+
+    @Test
+    public void annotationProcessorGeneratedSourcesGetCompiled_AbiSnapshot()
+        throws Exception
+    {
+        final CompilerResult result =
+            compiler.compileSourceDirWithThisClass( "anno-proc-gen-src",
+                                                    "org.test.Hello",
+                                                    new CompilerFixtureConfig().withAnnotationProcessor( TestProcessor.class )
+                                                                               .withCallerClasspathAbi() );
+        assertThat( result.getResult(), equalTo( Boolean.TRUE ) );
+
+        final Class<?> cls = result.getClassLoader()
+                                   .loadClass( "org.test.HelloDoc" );
+
+        final Method method = cls.getMethod( "main", new Class[] { String[].class } );
+
+        System.out.println( method );
+        method.invoke( null, new Object[] { new String[] {} } );
+    }
+
     @Test
     public void annotationProcessorGeneratedSourcesGetCompiled()
         throws Exception
@@ -156,6 +449,538 @@ public class CompilerFixxxtureTest
         method.invoke( null, new Object[] { new String[] {} } );
     }
 
+    @Test
+    public void releaseClosesClassLoaderAndFreezesFootprint()
+        throws Exception
+    {
+        final CompilerResult result = compiler.compileSourceDirWithThisClass( "interdep", "org.test.Hello" );
+
+        final Class<?> cls = result.getClassLoader()
+                                   .loadClass( "org.test.Hello" );
+        cls.getMethod( "main", new Class[] { String[].class } )
+           .invoke( null, new Object[] { new String[] {} } );
+
+        compiler.release( result );
+
+        final ResultFootprint footprint = result.getFootprint();
+        System.out.println( footprint );
+        assertThat( footprint.getDefinedClasses(), equalTo( 1 ) );
+
+        try
+        {
+            result.getClassLoader();
+            fail( "Released result should not hand out a class loader." );
+        }
+        catch ( final IllegalStateException e )
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void releaseKeepsOnlyTheDiagnosticIndex()
+        throws Exception
+    {
+        final CompilerResult result = compiler.compileSourceDirWithThisClass( "jdk-only-fails", "org.test.Hello" );
+        assertThat( result.getDiagnostics()
+                          .getDiagnostics()
+                          .isEmpty(), equalTo( false ) );
+
+        compiler.release( result );
+
+        assertThat( result.getDiagnosticIndex()
+                          .hasErrors(), equalTo( true ) );
+        try
+        {
+            result.getDiagnostics();
+            fail( "Released result should not hand out its diagnostic collector." );
+        }
+        catch ( final IllegalStateException e )
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void weakRetentionLetsDroppedResultsBeCollected()
+        throws Exception
+    {
+        compiler.withResultRetention( ResultRetention.WEAK );
+
+        final WeakReference<CompilerResult> ref =
+            new WeakReference<>( compiler.compileSourceDirWithThisClass( "jdk-only", "org.test.Hello" ) );
+        for ( int i = 0; i < 20 && ref.get() != null; i++ )
+        {
+            System.gc();
+            Thread.sleep( 50 );
+        }
+
+        assertThat( ref.get() == null, equalTo( true ) );
+    }
+
+    @Test
+    public void leakCheckFailsWhenClassLoaderIsRetained()
+        throws Exception
+    {
+        final CompilerFixture fixture = new CompilerFixture( temp ).withClassLoaderLeakCheck();
+        final CompilerResult result = fixture.compileSourceDirWithThisClass( "jdk-only", "org.test.Hello" );
+        leaked = result.getClassLoader()
+                       .loadClass( "org.test.Hello" );
+        try
+        {
+            fixture.after();
+            fail( "Retained class loader should have failed the leak check." );
+        }
+        catch ( final AssertionError e )
+        {
+            assertThat( e.getMessage()
+                         .contains( "outlived their test" ), equalTo( true ) );
+        }
+        finally
+        {
+            leaked = null;
+        }
+    }
+
+    @Test
+    public void watchRecompilesOnChange()
+        throws Exception
+    {
+        final File dir = temp.newFolder( "watched" );
+        FileUtils.copyDirectory( getFixtureDir( "jdk-only" ), dir );
+
+        final FixtureWatch watch = compiler.watch( dir, new CompilerFixtureConfig(), 50 );
+        assertThat( watch.getLatest()
+                         .getResult(), equalTo( Boolean.TRUE ) );
+
+        final BlockingQueue<CompilerResult> rebuilt = new LinkedBlockingQueue<>();
+        watch.subscribe( new CompilerResultListener()
+        {
+            @Override
+            public void compiled( final CompilerResult result )
+            {
+                rebuilt.add( result );
+            }
+        } );
+
+        final File source = new File( dir, "org/test/Hello.java" );
+        FileUtils.write( source, FileUtils.readFileToString( source )
+                                          .replace( "Hello, ", "Howdy, " ) );
+
+        final CompilerResult result = rebuilt.poll( 30, TimeUnit.SECONDS );
+        assertThat( result == null, equalTo( false ) );
+        assertThat( result.getResult(), equalTo( Boolean.TRUE ) );
+
+        final Class<?> cls = result.getClassLoader()
+                                   .loadClass( "org.test.Hello" );
+        cls.getMethod( "main", new Class[] { String[].class } )
+           .invoke( null, new Object[] { new String[] { "Tester" } } );
+
+        watch.close();
+        assertThat( watch.isRunning(), equalTo( false ) );
+
+        FileUtils.write( source, FileUtils.readFileToString( source )
+                                          .replace( "Howdy, ", "Hi, " ) );
+        assertThat( rebuilt.poll( 500, TimeUnit.MILLISECONDS ) == null, equalTo( true ) );
+    }
+
+    @Test
+    public void batchedCompilesKeepOutputAndResultsSeparate()
+        throws Exception
+    {
+        final CompileBatchScheduler scheduler = new CompileBatchScheduler( 500 );
+        compiler.withBatchScheduler( scheduler );
+
+        final List<Future<CompilerResult>> futures =
+            compileBatch( scheduler, new Object[] { getFixtureDir( "batch-a" ), new CompilerFixtureConfig() },
+                          new Object[] { getFixtureDir( "batch-b" ), new CompilerFixtureConfig() },
+                          new Object[] { getFixtureDir( "jdk-only-fails" ), new CompilerFixtureConfig() } );
+
+        final String[] classes = { "org.test.a.Hello", "org.test.b.Hello" };
+        for ( int i = 0; i < 2; i++ )
+        {
+            final CompilerResult result = futures.get( i )
+                                                 .get();
+            assertThat( result.getResult(), equalTo( Boolean.TRUE ) );
+            assertThat( result.getDiagnosticIndex()
+                              .hasErrors(), equalTo( false ) );
+
+            final List<File> classfiles = compiler.scan( result.getClasses(), "**/*.class" );
+            assertThat( classfiles.size(), equalTo( 1 ) );
+
+            // one thread compiled the whole batch, so its memory can't be split between fixtures.
+            assertThat( result.getMemory()
+                              .isBatched(), equalTo( true ) );
+            assertThat( result.getMemory()
+                              .isAttributable(), equalTo( false ) );
+
+            result.getClassLoader()
+                  .loadClass( classes[i] )
+                  .getMethod( "main", new Class[] { String[].class } )
+                  .invoke( null, new Object[] { new String[] { "Tester" } } );
+        }
+
+        final CompilerResult failed = futures.get( 2 )
+                                             .get();
+        assertThat( failed.getResult(), equalTo( Boolean.FALSE ) );
+        assertThat( failed.getDiagnosticIndex()
+                          .hasErrors(), equalTo( true ) );
+
+        // the broken fixture is compiled on its own, and the other two merged again without it.
+        assertThat( scheduler.getMergedCompiles(), equalTo( 1 ) );
+    }
+
+    @Test
+    public void batchedCompileDoesNotWaitWhenAlone()
+        throws Exception
+    {
+        final CompileBatchScheduler scheduler = new CompileBatchScheduler( 10000 );
+        compiler.withBatchScheduler( scheduler );
+
+        final long start = System.nanoTime();
+        final CompilerResult result = compiler.compile( getFixtureDir( "batch-a" ) );
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+
+        assertThat( result.getResult(), equalTo( Boolean.TRUE ) );
+        assertThat( "waited " + elapsed + "ms", elapsed < scheduler.getWindowMillis(), equalTo( true ) );
+        assertThat( result.getMemory()
+                          .isBatched(), equalTo( false ) );
+    }
+
+    @Test
+    public void batchedCompileCannotResolveTypesFromAnotherFixture()
+        throws Exception
+    {
+        final CompileBatchScheduler scheduler = new CompileBatchScheduler( 500 );
+        compiler.withBatchScheduler( scheduler );
+
+        final List<Future<CompilerResult>> futures =
+            compileBatch( scheduler, new Object[] { getFixtureDir( "batch-a" ), new CompilerFixtureConfig() },
+                          new Object[] { getFixtureDir( "batch-ref" ), new CompilerFixtureConfig() } );
+
+        assertThat( futures.get( 0 )
+                           .get()
+                           .getResult(), equalTo( Boolean.TRUE ) );
+        assertThat( futures.get( 1 )
+                           .get()
+                           .getResult(), equalTo( Boolean.FALSE ) );
+        assertThat( scheduler.getMergedCompiles(), equalTo( 0 ) );
+    }
+
+    /**
+     * Compile the fixtures concurrently, holding the scheduler's batch open for its whole window so a compile whose
+     * thread starts late can't miss it.
+     */
+    private List<Future<CompilerResult>> compileBatch( final CompileBatchScheduler scheduler,
+                                                       final Object[]... fixtures )
+        throws Exception
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool( fixtures.length );
+        final List<Future<CompilerResult>> futures = new ArrayList<>();
+        scheduler.begin();
+        try
+        {
+            for ( final Object[] fixture : fixtures )
+            {
+                futures.add( executor.submit( new Callable<CompilerResult>()
+                {
+                    @Override
+                    public CompilerResult call()
+                        throws Exception
+                    {
+                        return compiler.compile( (File) fixture[0], (CompilerFixtureConfig) fixture[1] );
+                    }
+                } ) );
+            }
+
+            for ( final Future<CompilerResult> future : futures )
+            {
+                future.get();
+            }
+        }
+        finally
+        {
+            scheduler.end();
+            executor.shutdown();
+        }
+
+        return futures;
+    }
+
+    @Test
+    public void concurrentCompilesOfSameFixtureGetSeparateOutput()
+        throws Exception
+    {
+        final int threads = 4;
+        final ExecutorService executor = Executors.newFixedThreadPool( threads );
+        final List<Future<CompilerResult>> futures = new ArrayList<>();
+        for ( int i = 0; i < threads; i++ )
+        {
+            futures.add( executor.submit( new Callable<CompilerResult>()
+            {
+                @Override
+                public CompilerResult call()
+                    throws Exception
+                {
+                    return compiler.compileSourceDirWithThisClass( "interdep", "org.test.Hello" );
+                }
+            } ) );
+        }
+        executor.shutdown();
+
+        final Set<File> outputs = new HashSet<>();
+        for ( final Future<CompilerResult> future : futures )
+        {
+            final CompilerResult result = future.get();
+            assertThat( result.getResult(), equalTo( Boolean.TRUE ) );
+            assertThat( compiler.scan( result.getClasses(), "**/*.class" )
+                                .size(), equalTo( 2 ) );
+            outputs.add( result.getClasses() );
+        }
+
+        assertThat( outputs.size(), equalTo( threads ) );
+    }
+
+    @Test
+    public void annotationProcessorProfiling()
+        throws Exception
+    {
+        final CompilerResult result =
+            compiler.compileSourceDirWithThisClass( "anno-proc-gen-src",
+                                                    "org.test.Hello",
+                                                    new CompilerFixtureConfig().withAnnotationProcessor( TestProcessor.class )
+                                                                               .withProcessorProfiling() );
+        assertThat( result.getResult(), equalTo( Boolean.TRUE ) );
+
+        final List<ProcessorProfile> profiles = result.getProcessorProfiles();
+        assertThat( profiles.size(), equalTo( 1 ) );
+
+        final ProcessorProfile profile = profiles.get( 0 );
+        System.out.println( profile );
+        assertThat( profile.getProcessor(), equalTo( TestProcessor.class.getName() ) );
+        assertThat( profile.getGeneratedFiles(), equalTo( 1 ) );
+        assertThat( profile.getRounds()
+                           .get( 0 )
+                           .getElements(), equalTo( 1 ) );
+        assertThat( profile.isBudgetExceeded(), equalTo( false ) );
+        assertThat( profile.getAllocatedBytes() > 0, equalTo( true ) );
+        assertThat( result.getMemory()
+                          .getAllocatedBytes() > profile.getAllocatedBytes(), equalTo( true ) );
+
+        // javac's source version warning names the profiled processor, not the wrapper.
+        final String warnings = String.valueOf( result.getDiagnostics()
+                                                      .getDiagnostics() );
+        assertThat( warnings, warnings.contains( "annotation processor '" + TestProcessor.class.getName() + "'" ),
+                    equalTo( true ) );
+        assertThat( warnings, warnings.contains( ProfilingProcessor.class.getSimpleName() ), equalTo( false ) );
+
+        final StringWriter report = new StringWriter();
+        CompileStatistics.getInstance()
+                         .writeReport( report );
+        final Matcher processor =
+            Pattern.compile( "\"processors\": \\{.*?\"" + Pattern.quote( TestProcessor.class.getName() )
+                                 + "\": \\{ \"compiles\": (\\d+), \"millis\": [\\d.]+, \"allocatedBytes\": (\\d+) \\}",
+                             Pattern.DOTALL )
+                   .matcher( report.toString() );
+        assertThat( report.toString(), processor.find(), equalTo( true ) );
+        assertThat( Long.parseLong( processor.group( 1 ) ) > 0, equalTo( true ) );
+        assertThat( Long.parseLong( processor.group( 2 ) ) >= profile.getAllocatedBytes(), equalTo( true ) );
+        assertThat( result.isTimedOut(), equalTo( false ) );
+        assertThat( result.getTimings()
+                          .getPhaseNanos()
+                          .containsKey( "GENERATE" ), equalTo( true ) );
+
+        result.getClassLoader()
+              .loadClass( "org.test.HelloDoc" );
+    }
+
+    @Test
+    public void annotationProcessorOverTimeBudgetFailsCompile()
+        throws Exception
+    {
+        final CompilerResult result =
+            compiler.compileSourceDirWithThisClass( "anno-proc-gen-src",
+                                                    "org.test.Hello",
+                                                    new CompilerFixtureConfig().withAnnotationProcessor( SlowTestProcessor.class )
+                                                                               .withProcessorTimeBudget( 10 ) );
+        assertThat( result.getResult(), equalTo( Boolean.FALSE ) );
+        assertThat( result.getProcessorProfiles()
+                          .get( 0 )
+                          .isBudgetExceeded(), equalTo( true ) );
+        assertThat( result.getDiagnosticIndex()
+                          .hasErrors(), equalTo( true ) );
+    }
+
+    @Test
+    public void compileTimeoutCancelsHungProcessor()
+        throws Exception
+    {
+        final long start = System.currentTimeMillis();
+        final CompilerResult result =
+            compiler.compileSourceDirWithThisClass( "anno-proc-gen-src",
+                                                    "org.test.Hello",
+                                                    new CompilerFixtureConfig().withAnnotationProcessor( HangingTestProcessor.class )
+                                                                               .withCompileTimeout( 500 ) );
+        assertThat( System.currentTimeMillis() - start < 10000, equalTo( true ) );
+        assertThat( result.getResult(), equalTo( Boolean.FALSE ) );
+        assertThat( result.isTimedOut(), equalTo( true ) );
+        assertThat( result.getTimings()
+                          .getRunningPhase(), equalTo( "ANNOTATION_PROCESSING_ROUND" ) );
+
+        // the timed-out pass reported to its own collector, which was dropped.
+        assertThat( result.getDiagnostics()
+                          .getDiagnostics()
+                          .isEmpty(), equalTo( true ) );
+    }
+
+    @Test
+    public void statisticsRecordLatencyAndEnforceBudgets()
+        throws Exception
+    {
+        final File dir = temp.newFolder( "budget-fixture" );
+        FileUtils.copyDirectory( getFixtureDir( "jdk-only" ), dir );
+
+        final CompileBudget budget = new CompileBudget( "budget-fixture", 95, 0 );
+        final CompileBudget generous = new CompileBudget( "budget-fixture", 95, 30000 );
+        final CompileStatistics stats = CompileStatistics.getInstance()
+                                                         .withBudget( budget );
+        try
+        {
+            final CompilerFixture fixture = new CompilerFixture( temp );
+            fixture.compile( dir );
+            fixture.compile( dir );
+
+            assertThat( stats.getLatency( "budget-fixture" )
+                             .getCount(), equalTo( 2L ) );
+
+            // class output is counted as javac writes it: one class per compile.
+            final StringWriter report = new StringWriter();
+            stats.writeReport( report );
+            assertThat( report.toString(), report.toString()
+                                                 .contains( "\"fixture\": \"budget-fixture\"" ), equalTo( true ) );
+            assertThat( report.toString(), report.toString()
+                                                 .contains( "\"classes\": 2," ), equalTo( true ) );
+
+            // both compiles ran alone, so their memory is attributed to the fixture.
+            final Matcher memory =
+                Pattern.compile( "\"fixture\": \"budget-fixture\".*?\"memory\": \\{ \"allocatedBytes\": (\\d+), "
+                                     + "\"allocatedBytesPerCompile\": (\\d+), .*?\"unattributed\": (\\d+) \\}",
+                                 Pattern.DOTALL )
+                       .matcher( report.toString() );
+            assertThat( report.toString(), memory.find(), equalTo( true ) );
+            assertThat( Long.parseLong( memory.group( 1 ) ) > 0, equalTo( true ) );
+            assertThat( Long.parseLong( memory.group( 2 ) ) * 2 <= Long.parseLong( memory.group( 1 ) ),
+                        equalTo( true ) );
+            assertThat( memory.group( 3 ), equalTo( "0" ) );
+
+            try
+            {
+                fixture.after();
+                fail( "Budget of 0ms should have failed the test." );
+            }
+            catch ( final AssertionError e )
+            {
+                assertThat( e.getMessage()
+                             .contains( "budget-fixture:p95=0ms" ), equalTo( true ) );
+            }
+
+            // a slow compile from an earlier test is over budget for the run, but doesn't fail a later, fast one.
+            stats.withoutBudget( budget )
+                 .withBudget( generous );
+            final CompilerResult fast = fixture.compile( dir );
+            stats.record( dir, new CompilerFixtureConfig(), TimeUnit.MINUTES.toNanos( 1 ), fast, 1, 0 );
+            assertThat( stats.checkBudgets()
+                             .isEmpty(), equalTo( false ) );
+            fixture.after();
+        }
+        finally
+        {
+            stats.withoutBudget( budget )
+                 .withoutBudget( generous );
+        }
+
+        assertThat( stats.getBudgets()
+                         .contains( budget ), equalTo( false ) );
+    }
+
+    @Test
+    public void prewarmCompletesInBackground()
+        throws Exception
+    {
+        CompilerPrewarmer.prewarm();
+        assertThat( CompilerPrewarmer.awaitPrewarm( 60, TimeUnit.SECONDS ), equalTo( true ) );
+
+        testHelloWorld( "jdk-only", true );
+    }
+
+    @Test
+    public void compileFixtureGraphAgainstUpstreamOutput()
+        throws Exception
+    {
+        final File lib = getFixtureDir( "graph-lib" );
+        final FixtureGraph graph = new FixtureGraph().withFixture( "lib", lib )
+                                                     .withFixture( "app", getFixtureDir( "graph-app" ) )
+                                                     .withFixture( "app2", getFixtureDir( "graph-app2" ) )
+                                                     .withDependency( "app", "lib" )
+                                                     .withDependency( "app2", "lib" );
+
+        final Map<String, CompilerResult> results = compiler.compile( graph );
+        for ( final CompilerResult result : results.values() )
+        {
+            assertThat( result.getResult(), equalTo( Boolean.TRUE ) );
+        }
+
+        // downstream output holds only its own classes; the library's are referenced, not copied.
+        assertThat( compiler.scan( results.get( "app" )
+                                          .getClasses(), "**/*.class" )
+                            .size(), equalTo( 1 ) );
+
+        final Object greeter = results.get( "app" )
+                                      .getClassLoader()
+                                      .loadClass( "org.app.Hello" )
+                                      .getMethod( "run", new Class[] { String.class } )
+                                      .invoke( null, new Object[] { "Tester" } );
+
+        final Object greeter2 = results.get( "app2" )
+                                       .getClassLoader()
+                                       .loadClass( "org.app2.Hello" )
+                                       .getMethod( "run", new Class[] { String.class } )
+                                       .invoke( null, new Object[] { "Tester" } );
+
+        assertThat( greeter == greeter2, equalTo( true ) );
+        assertThat( ( (Class<?>) greeter ).getClassLoader() == results.get( "lib" )
+                                                                     .getClassLoader(), equalTo( true ) );
+    }
+
+    @Test
+    public void compileFixtureGraphNamesMissingUpstream()
+        throws Exception
+    {
+        final FixtureGraph graph = new FixtureGraph().withFixture( "lib", new File( "no-such-fixture" ) )
+                                                     .withFixture( "app", getFixtureDir( "graph-app" ) )
+                                                     .withDependency( "app", "lib" );
+
+        try
+        {
+            compiler.compile( graph );
+            fail( "Compile against a missing upstream fixture should fail" );
+        }
+        catch ( final IOException e )
+        {
+            assertThat( e.getMessage(), e.getMessage()
+                                         .contains( "Upstream fixture: lib of: app" ), equalTo( true ) );
+        }
+    }
+
+    private File getFixtureDir( final String name )
+        throws Exception
+    {
+        return new File( Thread.currentThread()
+                               .getContextClassLoader()
+                               .getResource( name )
+                               .toURI() );
+    }
+
     private void testHelloWorld( final String basedir, final boolean expectSuccess )
         throws Exception
     {
@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2014 John Casey (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.test.compile;
+
+import java.util.Set;
+
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedSourceVersion;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.TypeElement;
+
+/* @formatter:off */
+@SupportedAnnotationTypes( "org.commonjava.test.compile.Doc" )
+@SupportedSourceVersion( SourceVersion.RELEASE_7 )
+/* @formatter:on */
+public class SlowTestProcessor
+    extends TestProcessor
+{
+
+    @Override
+    public boolean process( final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv )
+    {
+        try
+        {
+            Thread.sleep( 50 );
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread()
+                  .interrupt();
+        }
+
+        return super.process( annotations, roundEnv );
+    }
+
+}
@@ -0,0 +1,11 @@
+package org.test.a;
+
+public class Hello
+{
+    
+    public static void main( String[] args )
+    {
+        System.out.println( "Hello from a, " + args[0] + "!" );
+    }
+
+}
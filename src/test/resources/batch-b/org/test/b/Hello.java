@@ -0,0 +1,11 @@
+package org.test.b;
+
+public class Hello
+{
+    
+    public static void main( String[] args )
+    {
+        System.out.println( "Hello from b, " + args[0] + "!" );
+    }
+
+}
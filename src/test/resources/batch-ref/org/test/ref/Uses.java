@@ -0,0 +1,12 @@
+package org.test.ref;
+
+public class Uses
+{
+
+    public static void main( String[] args )
+    {
+        // org.test.a lives in another fixture; this must not compile, batched or not.
+        org.test.a.Hello.main( args );
+    }
+
+}
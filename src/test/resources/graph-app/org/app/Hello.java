@@ -0,0 +1,14 @@
+package org.app;
+
+import org.lib.Greeter;
+
+public class Hello
+{
+    
+    public static Class<?> run( String name )
+    {
+        System.out.println( Greeter.greet( name ) );
+        return Greeter.class;
+    }
+
+}
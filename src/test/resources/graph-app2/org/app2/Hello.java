@@ -0,0 +1,14 @@
+package org.app2;
+
+import org.lib.Greeter;
+
+public class Hello
+{
+    
+    public static Class<?> run( String name )
+    {
+        System.out.println( "Again: " + Greeter.greet( name ) );
+        return Greeter.class;
+    }
+
+}
@@ -0,0 +1,11 @@
+package org.lib;
+
+public class Greeter
+{
+    
+    public static String greet( String name )
+    {
+        return "Hello, " + name + "!";
+    }
+
+}
@@ -0,0 +1,9 @@
+package org.a;
+
+public class Greeting
+{
+    public static String greet( final String name )
+    {
+        return Salutation.HELLO + ", " + name;
+    }
+}
@@ -0,0 +1,6 @@
+package org.a;
+
+public enum Salutation
+{
+    HELLO;
+}
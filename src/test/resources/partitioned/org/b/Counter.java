@@ -0,0 +1,12 @@
+package org.b;
+
+// no reference to org.a.Greeting here, despite this comment.
+public class Counter
+{
+    private int count;
+
+    public int next()
+    {
+        return ++count;
+    }
+}
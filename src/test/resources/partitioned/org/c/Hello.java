@@ -0,0 +1,11 @@
+package org.c;
+
+import org.a.*;
+
+public class Hello
+{
+    public static void main( final String[] args )
+    {
+        System.out.println( Greeting.greet( "Tester" ) );
+    }
+}
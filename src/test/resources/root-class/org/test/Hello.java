@@ -0,0 +1,11 @@
+package org.test;
+
+public class Hello
+{
+    
+    public static void main( String[] args )
+    {
+        System.out.println( "Hello, " + new Name().get() + "!" );
+    }
+
+}
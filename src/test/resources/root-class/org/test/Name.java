@@ -0,0 +1,11 @@
+package org.test;
+
+public class Name
+{
+    
+    public String get()
+    {
+        return "Frederick";
+    }
+
+}
@@ -0,0 +1,11 @@
+package org.test.broken;
+
+public class Broken
+{
+    
+    public static void main( String[] args )
+    {
+        println( "Never compiled." );
+    }
+
+}
@@ -0,0 +1,10 @@
+package org.run;
+
+public class Hello
+{
+    public static void main( final String[] args )
+    {
+        System.out.println( "Hello, " + ( args.length > 0 ? args[0] : "Tester" ) );
+        System.err.println( "greeted: " + args.length );
+    }
+}